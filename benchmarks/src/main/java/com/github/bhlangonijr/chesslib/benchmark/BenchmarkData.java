@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.benchmark;
+
+import com.github.bhlangonijr.chesslib.game.Game;
+import com.github.bhlangonijr.chesslib.move.MoveList;
+import com.github.bhlangonijr.chesslib.pgn.PGNLoadListener;
+import com.github.bhlangonijr.chesslib.pgn.PgnHolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared fixtures for the benchmarks
+ */
+final class BenchmarkData {
+
+    /**
+     * Directory with the PGN files, defaults to the ones bundled with chesslib
+     */
+    static final String PGN_DIR = System.getProperty("chesslib.pgn.dir", "../src/test/resources");
+
+    static final String POSITIONS[] = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+
+    private BenchmarkData() {
+    }
+
+    static String pgnFile(String name) {
+        return new File(PGN_DIR, name).getPath();
+    }
+
+    /**
+     * Load the move lists of every game in the given PGN file
+     *
+     * @param name
+     * @return
+     * @throws Exception
+     */
+    static List<MoveList> loadGames(String name) throws Exception {
+        final List<MoveList> games = new ArrayList<MoveList>();
+        PgnHolder pgn = new PgnHolder(pgnFile(name));
+        pgn.getListener().add(new PGNLoadListener() {
+            @Override
+            public void notifyProgress(Game game) throws Exception {
+                try {
+                    game.loadMoveText();
+                } catch (Exception e) {
+                    return;
+                }
+                if (game.getHalfMoves().size() > 0) {
+                    games.add(new MoveList(game.getHalfMoves()));
+                }
+            }
+        });
+        pgn.loadPgn();
+        return games;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.benchmark;
+
+import com.github.bhlangonijr.chesslib.Bitboard;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.move.Move;
+import com.github.bhlangonijr.chesslib.move.MoveList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Board move execution and FEN conversion
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    /**
+     * Slider attacks by magic lookups or by the classical ray scan
+     */
+    @Param({"true", "false"})
+    public boolean magic;
+
+    private Board board;
+    private Move game[];
+    private String fens[];
+    private Board boards[];
+    private int fenIndex;
+
+    @Setup
+    public void setUp() throws Exception {
+        Bitboard.setMagicBitboards(magic);
+        board = new Board();
+        List<MoveList> games = BenchmarkData.loadGames("linares_2002.pgn");
+        game = games.get(0).toArray(new Move[0]);
+        fens = BenchmarkData.POSITIONS;
+        boards = new Board[fens.length];
+        for (int i = 0; i < fens.length; i++) {
+            boards[i] = new Board();
+            boards[i].loadFromFEN(fens[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Bitboard.setMagicBitboards(true);
+    }
+
+    /**
+     * Replay a full game and take it back
+     */
+    @Benchmark
+    public Board doUndoMove() {
+        Board b = board;
+        for (Move move : game) {
+            b.doMove(move, false);
+        }
+        for (int i = 0; i < game.length; i++) {
+            b.undoMove();
+        }
+        return b;
+    }
+
+    @Benchmark
+    public Board loadFromFEN() {
+        board.loadFromFEN(nextFen());
+        return board;
+    }
+
+    /**
+     * FEN generation only, over boards loaded in setUp
+     */
+    @Benchmark
+    public String getFEN() {
+        fenIndex = (fenIndex + 1) % boards.length;
+        return boards[fenIndex].getFEN();
+    }
+
+    private String nextFen() {
+        fenIndex = (fenIndex + 1) % fens.length;
+        return fens[fenIndex];
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.benchmark;
+
+import com.github.bhlangonijr.chesslib.Bitboard;
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.move.MoveGenerator;
+import com.github.bhlangonijr.chesslib.move.MoveGeneratorException;
+import com.github.bhlangonijr.chesslib.move.MoveList;
+import com.github.bhlangonijr.chesslib.move.Perft;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Legal move generation over the standard perft positions
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGeneratorBenchmark {
+
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    /**
+     * Slider attacks by magic lookups or by the classical ray scan
+     */
+    @Param({"true", "false"})
+    public boolean magic;
+
+    private final MoveGenerator generator = MoveGenerator.getInstance();
+    private final int moves[] = new int[MoveGenerator.MAX_MOVES];
+    private final Perft perft = new Perft();
+    private Board board;
+
+    @Setup
+    public void setUp() {
+        Bitboard.setMagicBitboards(magic);
+        board = new Board();
+        board.loadFromFEN(BenchmarkData.POSITIONS[position]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Bitboard.setMagicBitboards(true);
+    }
+
+    @Benchmark
+    public MoveList generateLegalMoves() throws MoveGeneratorException {
+        return generator.generateLegalMoves(board);
+    }
+
+    @Benchmark
+    public int generateLegalMovesPacked() throws MoveGeneratorException {
+        return generator.generateLegalMoves(board, moves);
+    }
+
+    /**
+     * Generation plus doMove/undoMove, leaves bulk counted
+     */
+    @Benchmark
+    public long perft3() throws MoveGeneratorException {
+        return perft.perft(board, 3);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.benchmark;
+
+import com.github.bhlangonijr.chesslib.game.Game;
+import com.github.bhlangonijr.chesslib.pgn.PGNLoadListener;
+import com.github.bhlangonijr.chesslib.pgn.PgnHolder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PGN loading over the bundled PGN files, headers only (lazy) and with the
+ * move text replayed on a board
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PgnBenchmark {
+
+    @Param({"cct131.pgn", "finalmast11.pgn", "linares_2002.pgn", "rav_alternative.pgn", "redqueen.pgn"})
+    public String file;
+
+    @Param({"true", "false"})
+    public boolean lazyLoad;
+
+    private String path;
+
+    @Setup
+    public void setUp() {
+        path = BenchmarkData.pgnFile(file);
+    }
+
+    @Benchmark
+    public int loadPgn(final Blackhole bh) throws Exception {
+        PgnHolder pgn = new PgnHolder(path);
+        pgn.setLazyLoad(lazyLoad);
+        pgn.getListener().add(new PGNLoadListener() {
+            @Override
+            public void notifyProgress(Game game) {
+                bh.consume(game);
+            }
+        });
+        pgn.loadPgn();
+        return pgn.getSize();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.benchmark;
+
+import com.github.bhlangonijr.chesslib.move.MoveConversionException;
+import com.github.bhlangonijr.chesslib.move.MoveList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SAN encoding and decoding of whole games
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanBenchmark {
+
+    private List<MoveList> games;
+    private String sans[];
+    private int index;
+
+    @Setup
+    public void setUp() throws Exception {
+        games = BenchmarkData.loadGames("linares_2002.pgn");
+        sans = new String[games.size()];
+        for (int i = 0; i < sans.length; i++) {
+            sans[i] = games.get(i).toSAN();
+        }
+    }
+
+    @Benchmark
+    public String toSAN() throws MoveConversionException {
+        // a fresh copy, MoveList caches its SAN
+        return new MoveList(games.get(next())).toSAN();
+    }
+
+    @Benchmark
+    public MoveList loadFromSAN() throws MoveConversionException {
+        int i = next();
+        MoveList moves = new MoveList(games.get(i).getStartFEN());
+        moves.loadFromSAN(sans[i]);
+        return moves;
+    }
+
+    private int next() {
+        index = (index + 1) % sans.length;
+        return index;
+    }
+}
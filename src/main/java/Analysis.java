@@ -1,6 +1,9 @@
 
 import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.move.MoveConversionException;
+import com.github.bhlangonijr.chesslib.move.SanParser;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -10,6 +13,8 @@ public class Analysis {
 
   private static boolean DEBUG = true;
 
+  private final GlobalDAO globalDAO = new GlobalDAO();
+
   public static void main(String[] args) throws Exception {
     System.out.println("START");
     Utils.DEBUG = DEBUG;
@@ -74,16 +79,19 @@ public class Analysis {
   }
 
 
+  // positions are looked up by zobrist key, the FEN column may be empty
   private POS findByFen(String fen) throws SQLException {
     Connection c = OpeningHandler.CK.getDAO().getConnection();
-    String sql = "SELECT Pid,W,Draw,B FROM POS where Fen='" + fen + "';";
-    ResultSet rs = c.createStatement().executeQuery(sql);
+    Board board = new Board();
+    board.loadFromFEN(fen);
+    PreparedStatement pstmt = c.prepareStatement("SELECT W,Draw,B FROM POS where PKey=?");
+    pstmt.setLong(1, board.getZobristKey());
+    ResultSet rs = pstmt.executeQuery();
     if (rs.next()) {
-      int id = rs.getInt(1);
-      int w = rs.getInt(2);
-      int d = rs.getInt(3);
-      int b = rs.getInt(4);
-      POS pos = new POS(id, fen, w, d, b, "DB", null);
+      int w = rs.getInt(1);
+      int d = rs.getInt(2);
+      int b = rs.getInt(3);
+      POS pos = new POS(board.getZobristKey(), fen, w, d, b, "DB", null);
       return pos;
     }
     return null;
@@ -93,32 +101,49 @@ public class Analysis {
     List<POS> rep = new ArrayList<POS>();
 
     int playedGames = pos.W+pos.Draw+pos.B;
-    String sql = "select top 10  POS.*,Move from POS,POS_MOVES where "
-        + " POS_MOVES.PFen = " + pos.fenId 
-        + "AND POS.Pid=POS_MOVES.CFen "      
+    String sql = "select top 10  POS.PKey,POS.Fen,W,Draw,B,Move from POS,POS_MOVES where "
+        + " POS_MOVES.PKey = ?"
+        + " AND POS.PKey=POS_MOVES.CKey "      
         + " AND W+B+DRAW>=" + playedGames + "/10" + " order by W+B+DRAW desc";
 
-    Utils.info("selectMostPlayedMoves sql", sql);
+    Utils.info("selectMostPlayedMoves sql", sql, pos.key);
 
-    ResultSet rs = c.createStatement().executeQuery(sql);
+    PreparedStatement pstmt = c.prepareStatement(sql);
+    pstmt.setLong(1, pos.key);
+    ResultSet rs = pstmt.executeQuery();
 
     for (; rs.next();) {
-      int fenId = rs.getInt(1);
+      long key = rs.getLong(1);
       String fen = rs.getString(2);
       int w = rs.getInt(3);
       int draw = rs.getInt(4);
       int b = rs.getInt(5);
-      String move = rs.getString(6);
+      String move = globalDAO.lookupMove(rs.getShort(6));
+      if (fen == null) {
+        fen = childFen(pos.fen, move);
+      }
 
-      POS tmp = new POS(fenId,fen, w, draw, b, "DB", move);
+      POS tmp = new POS(key,fen, w, draw, b, "DB", move);
       rep.add(tmp);
     }
     return rep;
   }
 
+  // rebuild the FEN of a position that was stored without it
+  private static String childFen(String parentFen, String san) throws SQLException {
+    Board board = new Board();
+    board.loadFromFEN(parentFen);
+    try {
+      board.doMove(SanParser.parse(board, san));
+    } catch (MoveConversionException e) {
+      throw new SQLException("Invalid move " + san + " on " + parentFen, e);
+    }
+    return board.getFEN(false);
+  }
+
   class POS {
 
-    int fenId;
+    long key;
     String fen;
     int W;
     int B;
@@ -126,9 +151,9 @@ public class Analysis {
     String src;
     String move;
 
-    public POS(int fenId, String fen, int w, int draw, int b, String src, String move) {
+    public POS(long key, String fen, int w, int draw, int b, String src, String move) {
       super();
-      this.fenId =fenId;
+      this.key = key;
       this.fen = fen;
       W = w;
       B = b;
@@ -140,7 +165,7 @@ public class Analysis {
     @Override
     public String toString() {
       if (DEBUG)
-        return "POS ["+fenId+ ", move=" + move + ", W=" + W + ", B=" + B + ", Draw=" + Draw + ", fen=" + fen + ", src=" + src + "]";
+        return "POS ["+key+ ", move=" + move + ", W=" + W + ", B=" + B + ", Draw=" + Draw + ", fen=" + fen + ", src=" + src + "]";
 
       return move;
     }
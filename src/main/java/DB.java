@@ -74,6 +74,16 @@ public class DB {
     }
   }
 
+  public static boolean hasTable(Connection c, String tableName) throws SQLException {
+    ResultSet res = c.getMetaData().getTables(null, null, tableName, new String[] { "TABLE" });
+    return res.next();
+  }
+
+  public static boolean hasColumn(Connection c, String tableName, String columnName) throws SQLException {
+    ResultSet res = c.getMetaData().getColumns(null, null, tableName, columnName);
+    return res.next();
+  }
+
   public static void dump(ResultSet rs) throws SQLException {
     ResultSetMetaData meta = rs.getMetaData();
     int colmax = meta.getColumnCount();
@@ -3,7 +3,6 @@ import com.github.bhlangonijr.chesslib.game.Game;
 import com.github.bhlangonijr.chesslib.move.MoveConversionException;
 import java.sql.SQLException;
 import java.sql.*;
-import java.util.HashMap;
 
 public class GlobalDAO {
 
@@ -18,6 +17,8 @@ public class GlobalDAO {
       + ",WhiteElo SMALLINT"
       + ",BlackElo SMALLINT"
       + ",ECO varchar(8)"    
+      + ",MoveHash1 BIGINT"
+      + ",MoveHash2 BIGINT"
       //, FOREIGN KEY (SAN) REFERENCES SAN(sid) " 
       + ",UNIQUE (Sanid,White,Black,Result)"
       + ");";
@@ -33,26 +34,32 @@ public class GlobalDAO {
       + "PRIMARY KEY, Move varchar(8) UNIQUE"
       + ");";
 
-  static final String mergeMoveSql = "MERGE INTO MOVE as t USING (VALUES( ? ))" + " AS v(move) on t.Move=v.Move "
-      + " WHEN NOT MATCHED THEN INSERT VALUES DEFAULT,v.Move "
-      + " WHEN MATCHED THEN UPDATE SET t.Move = v.Move";
+  // bulk mode: GAME rows are batched, duplicates are found by the move hash in memory and SAN isn't written
+  static final String insertGameSql = "INSERT INTO GAME VALUES(DEFAULT,?,?,?,?,?,?,?,?,?,?,?)";
+  static final int BATCH_SIZE = 5000;
 
   private static boolean DROP = false;
 
-  HashMap<String, Short> CACHED_MOVE = new HashMap<String, Short>();
-  HashMap<Short, String> REVERSE_CACHED_MOVE = new HashMap<Short, String>();
-
-  private int cacheHit = 0;
-  private int cacheMissed = 0;
-  private int reverseCacheHit = 0;
-  private int reverseCacheMissed = 0;
+  private final MoveDictionary moves = new MoveDictionary();
   private Connection _c;
 
-  private PreparedStatement pstmtMergeMove = null;
   private PreparedStatement pstmtInsertGame = null;
   private PreparedStatement pstmtInsertSAN = null;
 
+  private final boolean bulk;
+  // loaded on the first stored game, readers only need the moves
+  private HashSet128 gameHashes;
+  // games of the current batch, not in gameHashes before executeBatch
+  private HashSet128 pendingHashes;
+  private long[] pending;
+  private int pendingGames = 0;
+
   public GlobalDAO() {
+    this(false);
+  }
+
+  public GlobalDAO(boolean bulk) {
+    this.bulk = bulk;
   }
 
   public Connection getC() throws SQLException {
@@ -61,53 +68,170 @@ public class GlobalDAO {
       DB.createTable(_c, "MOVE", createMoveTableSql, DROP);
       DB.createTable(_c, "GAME", createGameTableSql, DROP);
       DB.createTable(_c, "SAN", createSanTableSql, DROP);
+      moves.load(_c);
     }
     return _c;
   }
 
-  public String lookupMove(short moveId) throws SQLException {
-    String s = REVERSE_CACHED_MOVE.get(moveId);
-    if (s == null) {
-      reverseCacheMissed++;
-      String sqlSelect = "SELECT Move FROM MOVE WHERE MID = " + moveId;
-      ResultSet rs = getC().createStatement().executeQuery(sqlSelect);
-      if (!rs.next()) {
-        return null;
+  /**
+   * 128-bit hash of the SAN of a game, two independent 64-bit multiplicative hashes
+   */
+  static long[] moveHash(CharSequence san) {
+    long h1 = 0xCBF29CE484222325L;
+    long h2 = 0x84222325CBF29CE4L;
+    for (int i = 0; i < san.length(); i++) {
+      char ch = san.charAt(i);
+      h1 = (h1 ^ ch) * 0x100000001B3L;
+      h2 = (h2 + ch) * 0xC6A4A7935BD1E995L;
+      h2 ^= h2 >>> 47;
+    }
+    h1 ^= h1 >>> 33;
+    h1 *= 0xFF51AFD7ED558CCDL;
+    h1 ^= h1 >>> 33;
+    return new long[] { h1, h2 };
+  }
+
+  // known games for the duplicate check of both modes, rows imported before the
+  // hash columns are hashed from their SAN once
+  private void loadGameHashes() throws SQLException {
+    if (gameHashes != null) {
+      return;
+    }
+    getC();
+    long start = System.currentTimeMillis();
+    if (!DB.hasColumn(_c, "GAME", "MOVEHASH1")) {
+      _c.createStatement().executeUpdate("ALTER TABLE GAME ADD COLUMN MoveHash1 BIGINT");
+      _c.createStatement().executeUpdate("ALTER TABLE GAME ADD COLUMN MoveHash2 BIGINT");
+      _c.commit();
+      Utils.info("Table GAME : move hash columns added");
+    }
+    pendingHashes = new HashSet128(BATCH_SIZE);
+    pending = new long[BATCH_SIZE * 2];
+    HashSet128 hashes = new HashSet128(1 << 20);
+    ResultSet rs = _c.createStatement().executeQuery(
+        "SELECT MoveHash1, MoveHash2 FROM GAME WHERE MoveHash1 IS NOT NULL");
+    while (rs.next()) {
+      hashes.add(rs.getLong(1), rs.getLong(2));
+    }
+    rs.close();
+
+    PreparedStatement update = _c.prepareStatement("UPDATE GAME SET MoveHash1=?, MoveHash2=? WHERE gid=?");
+    rs = _c.createStatement().executeQuery(
+        "SELECT g.gid, s.san FROM GAME g JOIN SAN s ON g.SanId=s.sid WHERE g.MoveHash1 IS NULL");
+    int updated = 0;
+    while (rs.next()) {
+      long[] hash = moveHash(rs.getString(2));
+      hashes.add(hash[0], hash[1]);
+      update.setLong(1, hash[0]);
+      update.setLong(2, hash[1]);
+      update.setInt(3, rs.getInt(1));
+      update.addBatch();
+      if (++updated % BATCH_SIZE == 0) {
+        update.executeBatch();
       }
-      s = rs.getString(1);
-      REVERSE_CACHED_MOVE.put(moveId, s);      
-    } else reverseCacheHit++;
-    return s;
+    }
+    rs.close();
+    update.executeBatch();
+    _c.commit();
+    // only set once complete, a failed load is retried
+    gameHashes = hashes;
+    Utils.info("[GAME hashes]", gameHashes.size() + " games", updated + " hashed from SAN",
+        gameHashes.memory() / 1024 + " KB off heap", (System.currentTimeMillis() - start) + " ms");
   }
 
+  public String lookupMove(short moveId) throws SQLException {
+    getC();
+    return moves.lookup(moveId);
+  }
+
+  // ids are assigned in memory, new moves are written on flush
   public short getOrCreateMove(String move) throws SQLException {
+    getC();
+    return moves.getOrCreate(move);
+  }
+
+  /**
+   * Store a game, batched in bulk mode. Both modes find duplicates by the
+   * move hash, so games imported in one mode are known to the other
+   *
+   * @return false if the game is a duplicate
+   */
+  public boolean storeGame(Game g) throws SQLException, MoveConversionException {
+    if (!bulk) {
+      return _storeGame(g);
+    }
     Connection c = getC();
+    loadGameHashes();
+    long[] hash = moveHash(g.getHalfMoves().toSAN());
+    if (gameHashes.contains(hash[0], hash[1]) || !pendingHashes.add(hash[0], hash[1])) {
+      return false;
+    }
+    if (pstmtInsertGame == null) {
+      pstmtInsertGame = c.prepareStatement(insertGameSql);
+    }
+    setGame(g, null, hash);
+    pstmtInsertGame.addBatch();
+    pending[pendingGames * 2] = hash[0];
+    pending[pendingGames * 2 + 1] = hash[1];
+    if (++pendingGames >= BATCH_SIZE) {
+      flush();
+    }
+    return true;
+  }
 
-    Short s = CACHED_MOVE.get(move);
-    if (s == null) {
-      cacheMissed++;
-      if (pstmtMergeMove == null) {
-        pstmtMergeMove = c.prepareStatement(mergeMoveSql, Statement.RETURN_GENERATED_KEYS);
+  // the hashes of a batch are known games only once the batch is in
+  public void flush() throws SQLException {
+    moves.flush(getC());
+    if (pendingGames > 0) {
+      try {
+        pstmtInsertGame.executeBatch();
+        for (int i = 0; i < pendingGames; i++) {
+          gameHashes.add(pending[i * 2], pending[i * 2 + 1]);
+        }
+      } finally {
+        pstmtInsertGame.clearBatch();
+        pendingHashes.clear();
+        pendingGames = 0;
       }
-      pstmtMergeMove.setString(1, move);
-      int res = pstmtMergeMove.executeUpdate();
-
-      if (res == 0)
-        System.out.println(move + " !!!!!!getOrCreateMove!!!!!!!!!ERROR res=0");
-      ResultSet rs = pstmtMergeMove.getGeneratedKeys();
-      rs.next();
-      short mid = rs.getShort(1);
-      CACHED_MOVE.put(move, mid);
-      return mid;
+    }
+  }
+
+  public void commit() throws SQLException {
+    flush();
+    getC().commit();
+  }
+
+  private void setGame(Game g, Integer sanId, long[] hash) throws SQLException {
+    String moveText = g.getMoveText().toString();
+    if (moveText.length() > 4096) {
+      moveText = moveText.substring(0, 4096);
+    }
+
+    pstmtInsertGame.setString(1, g.getWhitePlayer());
+    pstmtInsertGame.setString(2, g.getBlackPlayer());
+    pstmtInsertGame.setString(3, g.getResult().toString());
+    pstmtInsertGame.setString(4, moveText);
+    if (sanId == null) {
+      pstmtInsertGame.setNull(5, Types.INTEGER);
     } else {
-      cacheHit++;
-      return s;
+      pstmtInsertGame.setInt(5, sanId);
     }
+    pstmtInsertGame.setString(6, g.getDate());
+    pstmtInsertGame.setString(7, g.getWhiteElo() + "");
+    pstmtInsertGame.setString(8, g.getBlackElo() + "");
+    pstmtInsertGame.setString(9, g.getEco());
+    pstmtInsertGame.setLong(10, hash[0]);
+    pstmtInsertGame.setLong(11, hash[1]);
   }
 
   public boolean _storeGame(Game g) throws SQLException, MoveConversionException {
 
     String san = g.getHalfMoves().toSAN(); //TODO: make sure that san is cached @home
+    loadGameHashes();
+    long[] hash = moveHash(san);
+    if (gameHashes.contains(hash[0], hash[1])) {
+      return false;
+    }
 
     if (pstmtInsertSAN == null) {
       String sanUpsert = "MERGE INTO SAN as t USING (VALUES(?)) " + " AS vals(san) on t.san=vals.san "
@@ -119,6 +243,7 @@ public class GlobalDAO {
     int res = pstmtInsertSAN.executeUpdate();
 
     if (res == 0) {
+      gameHashes.add(hash[0], hash[1]);
       return false; ///SAN already exist TODO: check if really duplicated
 
     }
@@ -128,26 +253,13 @@ public class GlobalDAO {
     int sanId = rs.getInt(1);
 
     if (pstmtInsertGame == null) {
-      String sql3 = "INSERT INTO GAME VALUES(DEFAULT,?,?,?,?,?,?,?,?,?)";
-      pstmtInsertGame = getC().prepareStatement(sql3);
+      pstmtInsertGame = getC().prepareStatement(insertGameSql);
     }
 
-    String moveText = g.getMoveText().toString();
-    if (moveText.length() > 4096) {
-      moveText = moveText.substring(0, 4096);
-    }
-
-    pstmtInsertGame.setString(1, g.getWhitePlayer());
-    pstmtInsertGame.setString(2, g.getBlackPlayer());
-    pstmtInsertGame.setString(3, g.getResult().toString());
-    pstmtInsertGame.setString(4, moveText);
-    pstmtInsertGame.setInt(5, sanId);
-    pstmtInsertGame.setString(6, g.getDate());
-    pstmtInsertGame.setString(7, g.getWhiteElo() + "");
-    pstmtInsertGame.setString(8, g.getBlackElo() + "");
-    pstmtInsertGame.setString(9, g.getEco());
+    setGame(g, sanId, hash);
    
     pstmtInsertGame.executeUpdate();
+    gameHashes.add(hash[0], hash[1]);
     return true;
 
   }
@@ -155,7 +267,6 @@ public class GlobalDAO {
   
   
   public void dumpCacheInfo() {
-    Utils.info("[MOVES Cache]", "cache size :" + CACHED_MOVE.size(), "Hits : " + cacheHit, "Missed : " + cacheMissed);
-    Utils.info("[MOVES ReverseCache]", "cache size :" + REVERSE_CACHED_MOVE.size(), "Hits : " + reverseCacheHit, "Missed : " + reverseCacheMissed);
+    Utils.info("[MOVES Dictionary]", moves.metrics());
   }
 }
\ No newline at end of file
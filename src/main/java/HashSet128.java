@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Set of 128-bit hashes kept off the heap: a direct buffer of (hi, lo) slots
+ * with linear probing, so millions of entries cost no GC work.
+ * (0, 0) marks an empty slot and is stored as (0, 1).
+ */
+public class HashSet128 {
+
+  private LongBuffer slots;
+  private int mask;
+  private int size;
+
+  public HashSet128(int expected) {
+    allocate(Integer.highestOneBit(Math.max(16, expected) * 2 - 1) << 1);
+  }
+
+  private void allocate(int capacity) {
+    slots = ByteBuffer.allocateDirect(capacity * 16).asLongBuffer();
+    mask = capacity - 1;
+  }
+
+  private static int index(long hi, long lo) {
+    long h = (hi ^ Long.rotateLeft(lo, 32)) * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /** @return false if the hash was already there */
+  public boolean add(long hi, long lo) {
+    if (hi == 0 && lo == 0) {
+      lo = 1;
+    }
+    int slot = index(hi, lo) & mask;
+    while (true) {
+      long h = slots.get(slot * 2);
+      long l = slots.get(slot * 2 + 1);
+      if (h == 0 && l == 0) {
+        break;
+      }
+      if (h == hi && l == lo) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    slots.put(slot * 2, hi);
+    slots.put(slot * 2 + 1, lo);
+    size++;
+    if (size * 2 > mask) {
+      grow();
+    }
+    return true;
+  }
+
+  public boolean contains(long hi, long lo) {
+    if (hi == 0 && lo == 0) {
+      lo = 1;
+    }
+    int slot = index(hi, lo) & mask;
+    while (true) {
+      long h = slots.get(slot * 2);
+      long l = slots.get(slot * 2 + 1);
+      if (h == 0 && l == 0) {
+        return false;
+      }
+      if (h == hi && l == lo) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void grow() {
+    LongBuffer old = slots;
+    int oldCapacity = mask + 1;
+    allocate(oldCapacity * 2);
+    size = 0;
+    for (int i = 0; i < oldCapacity; i++) {
+      long h = old.get(i * 2);
+      long l = old.get(i * 2 + 1);
+      if (h != 0 || l != 0) {
+        add(h, l);
+      }
+    }
+  }
+
+  public void clear() {
+    for (int i = 0; i <= mask * 2 + 1; i++) {
+      slots.put(i, 0L);
+    }
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** off-heap bytes */
+  public long memory() {
+    return (mask + 1) * 16L;
+  }
+}
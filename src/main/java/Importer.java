@@ -4,23 +4,33 @@ import com.github.bhlangonijr.chesslib.game.Game;
 import com.github.bhlangonijr.chesslib.game.GameResult;
 import com.github.bhlangonijr.chesslib.move.Move;
 import com.github.bhlangonijr.chesslib.move.MoveConversionException;
-import com.github.bhlangonijr.chesslib.move.MoveList;
 import com.github.bhlangonijr.chesslib.pgn.PGNLoadListener;
-import com.github.bhlangonijr.chesslib.pgn.PgnHolder;
+import com.github.bhlangonijr.chesslib.pgn.ParallelPgnLoader;
+import com.github.bhlangonijr.chesslib.pgn.PgnFilter;
 import java.io.File;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class Importer {
     
-  GlobalDAO globalDAO = new GlobalDAO();
+  // -Dimport.bulk=false stores games one by one with the SAN table as duplicate check
+  GlobalDAO globalDAO = new GlobalDAO(!"false".equals(System.getProperty("import.bulk")));
   
+  // stage sizes, e.g. -Dimport.parseThreads=2 -Dimport.decodeThreads=4 -Dimport.queueSize=2048
+  int decodeThreads = Integer.getInteger("import.decodeThreads",
+      Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+  // the cores left by the decode stage
+  int parseThreads = Integer.getInteger("import.parseThreads",
+      Math.max(1, Runtime.getRuntime().availableProcessors() - decodeThreads));
+  int queueSize = Integer.getInteger("import.queueSize", 1024);
+  // global commit every n GAME batches, so that commits don't cut batches short
+  int globalCommitGames = GlobalDAO.BATCH_SIZE * Math.max(1, Integer.getInteger("import.globalCommitBatches", 2));
+
   enum STATS {
-    INVALID_PLAYER, INVALID_PGN, INVALID_ECO, NO_HANDLER, DUPLICATE, IMPORTED, ONGOING;
-    int counter = 0;
+    INVALID_PLAYER, INVALID_PGN, INVALID_ECO, NO_HANDLER, DUPLICATE, IMPORTED, ONGOING, FILTERED;
+    final AtomicInteger counter = new AtomicInteger();
 
     public String toString() {
       return this.name() + " : " + counter;
@@ -47,29 +57,50 @@ public class Importer {
   }
 
   
-  void importGame(Game game) throws MoveConversionException, SQLException {
+  /**
+   * A game checked and replayed by the decode stage, ready to be stored
+   */
+  static class DecodedGame {
+    static final int MAX_POSITIONS = 16 * 2 + 1;
+
+    final Game game;
+    final OpeningHandler handler;
+    // keys[i + 1] is reached by moves[i], fens are only set with OpeningHandler.STORE_FEN
+    final long[] keys = new long[MAX_POSITIONS];
+    final String[] fens = new String[MAX_POSITIONS];
+    final String[] moves = new String[MAX_POSITIONS - 1];
+    int positions;
+
+    DecodedGame(Game game, OpeningHandler handler) {
+      this.game = game;
+      this.handler = handler;
+    }
+  }
+
+  // decode stage: checks, movetext and positions, no DB access
+  DecodedGame decodeGame(Game game) throws MoveConversionException {
     if (GameResult.ONGOING.equals(game.getResult())) {
       Utils.info("SKIP ONGOING GAME", game.getWhitePlayer(), game.getBlackPlayer());
-      STATS.DUPLICATE.counter++;
-      return;
+      STATS.DUPLICATE.counter.incrementAndGet();
+      return null;
     }
 
     if (!Utils.validatePlayers(game)) {
       Utils.info("SKIP INVALID PLAYERS", game.getWhitePlayer(), game.getBlackPlayer());
-      STATS.INVALID_PLAYER.counter++;
-      return;
+      STATS.INVALID_PLAYER.counter.incrementAndGet();
+      return null;
     }
     
     String eco = game.getEco();
     if (eco == null || eco.trim().length() < 3) {
-      STATS.INVALID_ECO.counter++;
-      return;
+      STATS.INVALID_ECO.counter.incrementAndGet();
+      return null;
     }
 
     OpeningHandler h = OpeningHandler.findHandler(game);
     if (h == null) {
-      STATS.NO_HANDLER.counter++;
-      return;
+      STATS.NO_HANDLER.counter.incrementAndGet();
+      return null;
     }
 
     try {
@@ -83,50 +114,90 @@ public class Importer {
         Utils.debug(game);
         Utils.debug("************************************************************************************");
       }
-      STATS.INVALID_PGN.counter++;
-      return;
+      STATS.INVALID_PGN.counter.incrementAndGet();
+      return null;
     }
 
-    boolean duplicated = !globalDAO._storeGame(game);
-
-    if (duplicated) {
-      STATS.DUPLICATE.counter++;
-      return;
-    }
+    // cached in the move list, the writer only reads it
+    game.getHalfMoves().toSAN();
 
+    DecodedGame decoded = new DecodedGame(game, h);
     Board board = new Board();
+    decoded.keys[0] = board.getZobristKey();
+    if (OpeningHandler.STORE_FEN)
+      decoded.fens[0] = board.getFEN(false);
+    decoded.positions = 1;
+    for (Move move : game.getHalfMoves()) {
+      if (decoded.positions == DecodedGame.MAX_POSITIONS)
+        break;
+      board.doMove(move);
+      decoded.moves[decoded.positions - 1] = move.getSan();
+      decoded.keys[decoded.positions] = board.getZobristKey();
+      if (OpeningHandler.STORE_FEN)
+        decoded.fens[decoded.positions] = board.getFEN(false);
+      decoded.positions++;
+    }
+    return decoded;
+  }
 
-    String oldFen = board.getFEN(false);
-
-    List<Utils.Triple<String, Short, String>> movesToStore = new ArrayList<Utils.Triple<String, Short, String>>();
-
-    movesToStore.add(new Utils.Triple<String, Short, String>(null, null, oldFen));
-
-    MoveList moves = game.getHalfMoves();
+  // write stage: the DB connections are not shared, so it runs on one thread
+  void storeGame(DecodedGame decoded) throws MoveConversionException, SQLException, InterruptedException {
+    Game game = decoded.game;
+    boolean duplicated = !globalDAO.storeGame(game);
 
-    for (Move move : moves) {
+    if (duplicated) {
+      STATS.DUPLICATE.counter.incrementAndGet();
+      return;
+    }
 
-      short moveId = globalDAO.getOrCreateMove(move.getSan());
-      board.doMove(move);
-      String newFen = board.getFEN(false);
-      movesToStore.add(new Utils.Triple<String, Short, String>(oldFen, moveId, newFen));
-      oldFen = newFen;
-      if (movesToStore.size() > 16 * 2)
-        break;
+    short[] moveIds = new short[decoded.positions - 1];
+    for (int i = 0; i < moveIds.length; i++) {
+      moveIds[i] = globalDAO.getOrCreateMove(decoded.moves[i]);
     }
-    h.getDAO().storeMoves(movesToStore,game.getResult());
-   
+    decoded.handler.write(new OpeningHandler.Positions(decoded.keys, decoded.fens, moveIds, decoded.positions,
+        game.getResult()));
+    STATS.IMPORTED.counter.incrementAndGet();
    
     counter++;
     
-    if (counter>3000) {
-      Utils.info("COMMIT ALL");
+    // the handler writers commit on their own
+    if (counter >= globalCommitGames) {
+      Utils.info("COMMIT GLOBAL");
          
-    globalDAO.getC().commit();
-    OpeningHandler.commitAll();
+    globalDAO.commit();
     counter=0;
     }
   }
+
+  /**
+   * parse (loader threads) -> decode (decodeThreads) -> write (1 thread)
+   * -> one writer thread per OpeningHandler, started with startWriters
+   */
+  Stage<Game, DecodedGame> createPipeline() {
+    Stage<Game, DecodedGame> decode = new Stage<Game, DecodedGame>("decode", decodeThreads, queueSize,
+        new Stage.Worker<Game, DecodedGame>() {
+          @Override
+          public DecodedGame process(Game game) throws Exception {
+            return decodeGame(game);
+          }
+        });
+    decode.then(new Stage<DecodedGame, Void>("write", 1, queueSize,
+        new Stage.Worker<DecodedGame, Void>() {
+          @Override
+          public Void process(DecodedGame decoded) throws Exception {
+            storeGame(decoded);
+            return null;
+          }
+        }));
+    return decode;
+  }
+
+  // same layout as Stage.metrics()
+  static String parseMetrics(ParallelPgnLoader pgn) {
+    return "parse[threads " + pgn.getParallelism() + " out " + pgn.getSize() + " /s " + (int) pgn.getThroughput()
+        + " chunks " + pgn.getPendingChunks() + "/" + pgn.getMaxPendingChunks() + "]";
+  }
+
 int counter=0;
   public void importPgnFiles(String... filenames) throws Exception {
 
@@ -146,35 +217,72 @@ int counter=0;
       }
       Utils.info("Start importing " + f);
 
-      PgnHolder pgn = new PgnHolder(f);
+      // parsed on parseThreads, games still arrive in file order on this thread
+      final ParallelPgnLoader pgn = new ParallelPgnLoader(f);
+      pgn.setParallelism(parseThreads);
       pgn.setLazyLoad(true);
+      // games without a handler or a result are skipped while parsing
+      PgnFilter filter = new PgnFilter()
+          .eco(OpeningHandler.ECO_PREFIXES)
+          .tag("Result", "1-0", "0-1", "1/2-1/2");
+      pgn.setFilter(filter);
+
+      OpeningHandler.startWriters(queueSize);
+      final Stage<Game, DecodedGame> pipeline = createPipeline();
+      pipeline.start();
       
       pgn.getListener().add(new PGNLoadListener() {
       int i = 0;
         @Override
-        public void notifyProgress(Game game) throws MoveConversionException, SQLException {
-          importGame(game);
+        public void notifyProgress(Game game) throws InterruptedException {
+          pipeline.put(game);
           i++;
           if (i%1000==0){
-          long temp = (System.currentTimeMillis() - startTime) / 1000;
-          Utils.info(i+" games imported in " + temp + " -- " + (((float)i)/temp));
+          long temp = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+          Utils.info(i+" games parsed in " + temp + " -- " + (((float)i)/temp), parseMetrics(pgn),
+              pipeline.metrics(), OpeningHandler.writerMetrics());
           }
         }
       });
             
-      pgn.loadPgn();
-      Utils.info("COMMIT ALL AFTER PGN");
+      // the stages are always finished, so what was parsed gets flushed and committed
+      Exception failure = null;
+      try {
+        pgn.loadPgn();
+      } catch (Exception e) {
+        failure = e;
+      }
+      try {
+        pipeline.finish();
+      } catch (Exception e) {
+        failure = failure == null ? e : failure;
+      }
+      try {
+        OpeningHandler.finishWriters();
+      } catch (Exception e) {
+        failure = failure == null ? e : failure;
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      Utils.info("[PIPELINE]", parseMetrics(pgn), pipeline.metrics(), OpeningHandler.writerMetrics());
+      Utils.info("COMMIT GLOBAL AFTER PGN");
       
-      globalDAO.getC().commit();
-      OpeningHandler.commitAll();
+      globalDAO.commit();
+      counter = 0; // the next batches start empty
 
       long durationSec = (System.currentTimeMillis() - startTime) / 1000;
 
-      Utils.info("File: " + f + " imported", "duration sec:" + durationSec, "contain " + pgn.getSize());
+      // games dropped by the filter never reach decodeGame and its STATS
+      long skipped = filter.getScanned() - pgn.getSize();
+      STATS.FILTERED.counter.addAndGet((int) skipped);
+      Utils.info("File: " + f + " imported", "duration sec:" + durationSec, "delivered " + pgn.getSize(),
+          "scanned " + filter.getScanned(), "skipped by filter " + skipped);
       Tpgn+=pgn.getSize();
     }    
     long HdurationSec = (System.currentTimeMillis() - HstartTime) / 1000;
-    Utils.info("[DONE importPgnFiles]", "duration sec:" + HdurationSec, Tpgn +" imported", Arrays.toString(STATS.values()));
+    globalDAO.dumpCacheInfo();
+    Utils.info("[DONE importPgnFiles]", "duration sec:" + HdurationSec, Tpgn +" delivered", Arrays.toString(STATS.values()));
   }
 
 }
@@ -0,0 +1,185 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * The whole MOVE table in memory: SAN by id in a dense array, id by SAN in a
+ * trie over the SAN characters, so both directions are array walks.
+ * New moves get their id here and are written by {@link #flush(Connection)}.
+ */
+public class MoveDictionary {
+
+  // SAN alphabet, moves with other characters go to the overflow map
+  private static final String ALPHABET = "abcdefgh12345678KQRBNPxO0-=+#!?:";
+  private static final int SYMBOLS = ALPHABET.length();
+  private static final byte[] SYMBOL = new byte[128];
+
+  static {
+    for (int i = 0; i < 128; i++) {
+      SYMBOL[i] = -1;
+    }
+    for (int i = 0; i < SYMBOLS; i++) {
+      SYMBOL[ALPHABET.charAt(i)] = (byte) i;
+    }
+  }
+
+  private String[] moves = new String[1024];
+  private int size; // next id
+
+  // trie: children of node n at n * SYMBOLS, 0 = none (the root is never a child)
+  private int[] children = new int[1024 * SYMBOLS];
+  private int[] values = new int[1024];
+  private int nodes = 1;
+  private final HashMap<String, Short> overflow = new HashMap<String, Short>();
+
+  private int flushed; // ids below are in the DB
+  private long hits;
+  private long misses;
+  private long reverseHits;
+  private long reverseMisses;
+
+  public MoveDictionary() {
+    values[0] = -1;
+  }
+
+  /** read the MOVE table */
+  public void load(Connection c) throws SQLException {
+    ResultSet rs = c.createStatement().executeQuery("SELECT mid, Move FROM MOVE");
+    while (rs.next()) {
+      put(rs.getString(2), rs.getShort(1));
+    }
+    rs.close();
+    flushed = size;
+  }
+
+  /** @return the id, -1 if unknown */
+  public int get(CharSequence san) {
+    int node = 0;
+    for (int i = 0; i < san.length(); i++) {
+      char ch = san.charAt(i);
+      int symbol = ch < 128 ? SYMBOL[ch] : -1;
+      if (symbol < 0) {
+        return getOverflow(san);
+      }
+      node = children[node * SYMBOLS + symbol];
+      if (node == 0) {
+        // not in the trie, but maybe in the overflow map
+        for (int j = i + 1; j < san.length(); j++) {
+          ch = san.charAt(j);
+          if (ch >= 128 || SYMBOL[ch] < 0) {
+            return getOverflow(san);
+          }
+        }
+        return -1;
+      }
+    }
+    return values[node];
+  }
+
+  private int getOverflow(CharSequence san) {
+    if (overflow.isEmpty()) {
+      return -1;
+    }
+    Short id = overflow.get(san.toString());
+    return id == null ? -1 : id;
+  }
+
+  /** id of a move, given the next free id if new */
+  public short getOrCreate(String san) {
+    int id = get(san);
+    if (id >= 0) {
+      hits++;
+      return (short) id;
+    }
+    misses++;
+    if (size > Short.MAX_VALUE) {
+      throw new IllegalStateException("MOVE table full");
+    }
+    short created = (short) size;
+    put(san, created);
+    return created;
+  }
+
+  /** @return the SAN of a move id, null if unknown */
+  public String lookup(short id) {
+    if (id >= 0 && id < size && moves[id] != null) {
+      reverseHits++;
+      return moves[id];
+    }
+    reverseMisses++;
+    return null;
+  }
+
+  private void put(String san, short id) {
+    if (id >= moves.length) {
+      String[] grown = new String[Math.max(moves.length * 2, id + 1)];
+      System.arraycopy(moves, 0, grown, 0, moves.length);
+      moves = grown;
+    }
+    moves[id] = san;
+    size = Math.max(size, id + 1);
+
+    int node = 0;
+    for (int i = 0; i < san.length(); i++) {
+      char ch = san.charAt(i);
+      int symbol = ch < 128 ? SYMBOL[ch] : -1;
+      if (symbol < 0) {
+        overflow.put(san, id);
+        return;
+      }
+    }
+    for (int i = 0; i < san.length(); i++) {
+      int index = node * SYMBOLS + SYMBOL[san.charAt(i)];
+      if (children[index] == 0) {
+        int child = newNode(); // may replace the children array
+        children[index] = child;
+      }
+      node = children[index];
+    }
+    values[node] = id;
+  }
+
+  private int newNode() {
+    if (nodes == values.length) {
+      int[] grownValues = new int[values.length * 2];
+      System.arraycopy(values, 0, grownValues, 0, values.length);
+      values = grownValues;
+      int[] grownChildren = new int[children.length * 2];
+      System.arraycopy(children, 0, grownChildren, 0, children.length);
+      children = grownChildren;
+    }
+    values[nodes] = -1;
+    return nodes++;
+  }
+
+  /**
+   * Insert the moves created since the last flush, with their local ids
+   */
+  public void flush(Connection c) throws SQLException {
+    if (flushed == size) {
+      return;
+    }
+    PreparedStatement pstmt = c.prepareStatement("INSERT INTO MOVE OVERRIDING SYSTEM VALUE VALUES(?,?)");
+    for (int id = flushed; id < size; id++) {
+      pstmt.setShort(1, (short) id);
+      pstmt.setString(2, moves[id]);
+      pstmt.addBatch();
+    }
+    pstmt.executeBatch();
+    pstmt.close();
+    // keep the identity in step for inserts made outside of the dictionary
+    c.createStatement().executeUpdate("ALTER TABLE MOVE ALTER COLUMN mid RESTART WITH " + size);
+    flushed = size;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public String metrics() {
+    return "size " + size + " trie nodes " + nodes + " hits " + hits + " missed " + misses
+        + " reverse hits " + reverseHits + " reverse missed " + reverseMisses;
+  }
+}
@@ -3,16 +3,20 @@ import com.github.bhlangonijr.chesslib.game.Game;
 import com.github.bhlangonijr.chesslib.game.GameResult;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.List;
 
  public enum OpeningHandler {
 
   CK("xxx"), LND("xxxx"), SLV("tttt");
 
+  // keep the FEN of the positions, -Dimport.storeFen=true; it can be rebuilt from the moves
+  static final boolean STORE_FEN = Boolean.getBoolean("import.storeFen");
+
+  // ECO codes with a handler, as matched by findHandler
+  static final String[] ECO_PREFIXES = { "B1", "D02", "A46", "A48", "D1" };
+
   private PositionDao dao;
+  private Stage<Positions, Void> writer;
 
   private OpeningHandler(String a) {
    
@@ -53,28 +57,130 @@ import java.util.List;
     return null;
   }
 
-  public static void commitAll() throws SQLException{
-    for (OpeningHandler h : OpeningHandler.values()) {
-      if (h.dao!=null && h.dao.cx!=null) {
-         h.dao.cx.commit();        
+  // per handler setting, e.g. -Dimport.CK.commitGames, falling back to -Dimport.commitGames
+  static int setting(String handler, String key, int defaultValue) {
+    return Integer.getInteger("import." + handler + "." + key, Integer.getInteger("import." + key, defaultValue));
+  }
+
+  /**
+   * The positions of one game, as queued to the writer of its handler
+   */
+  static class Positions {
+    final long[] keys;
+    final String[] fens;
+    final short[] moveIds;
+    final int count;
+    final GameResult result;
+
+    Positions(long[] keys, String[] fens, short[] moveIds, int count, GameResult result) {
+      this.keys = keys;
+      this.fens = fens;
+      this.moveIds = moveIds;
+      this.count = count;
+      this.result = result;
+    }
+  }
+
+  /**
+   * Start one writer thread per handler: the databases are independent, so
+   * each writer batches and commits on its own
+   */
+  public static void startWriters(int queueSize) {
+    for (OpeningHandler h : values()) {
+      h.writer = new Stage<Positions, Void>("write-" + h, 1, queueSize, h.new Writer());
+      h.writer.start();
+    }
+  }
+
+  /** queue the positions of a game, blocks while the writer is behind */
+  public void write(Positions positions) throws InterruptedException {
+    writer.put(positions);
+  }
+
+  /** wait for the writers to drain their queues and commit */
+  public static void finishWriters() throws Exception {
+    Exception failure = null;
+    for (OpeningHandler h : values()) {
+      if (h.writer != null) {
+        try {
+          h.writer.finish();
+        } catch (Exception e) {
+          failure = failure == null ? e : failure;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  public static String writerMetrics() {
+    StringBuilder sb = new StringBuilder();
+    for (OpeningHandler h : values()) {
+      if (h.writer != null) {
+        sb.append(sb.length() == 0 ? "" : " ").append(h.writer.metrics());
+      }
+    }
+    return sb.toString();
+  }
+
+  // commits every commitGames games or commitMillis ms, whichever comes first
+  class Writer implements Stage.BatchWorker<Positions, Void> {
+    final int commitGames = setting(name(), "commitGames", 10000);
+    final int commitMillis = setting(name(), "commitMillis", 30000);
+    int games = 0;
+    long lastCommit = System.currentTimeMillis();
+
+    @Override
+    public Void process(Positions p) throws SQLException {
+      getDAO().storeMoves(p.keys, p.fens, p.moveIds, p.count, p.result);
+      games++;
+      return null;
+    }
+
+    @Override
+    public void tick() throws SQLException {
+      if (games >= commitGames || (games > 0 && System.currentTimeMillis() - lastCommit >= commitMillis)) {
+        commit();
       }
     }
+
+    @Override
+    public void done() throws SQLException {
+      if (games > 0) {
+        commit();
+      }
+    }
+
+    private void commit() throws SQLException {
+      long start = System.currentTimeMillis();
+      getDAO().flush();
+      getDAO().getConnection().commit();
+      Utils.info("[" + name() + "] COMMIT", games + " games", (System.currentTimeMillis() - start) + " ms");
+      games = 0;
+      lastCommit = System.currentTimeMillis();
+    }
   }
-  
-  ;
 
   class PositionDao {
+    static final int BATCH_SIZE = 10000;
+
     final String name;
 
     private Connection cx;
-    private PreparedStatement pstmtW, pstmtD, pstmtB, pstmtM;
+    private PreparedStatement pstmtPos, pstmtM;
+    private final PositionAggregator aggregator;
 
     public PositionDao(String name) {
       this.name = name;
+      this.aggregator = new PositionAggregator(setting(name, "aggregateSize", 1 << 18));
     }
 
     private void createTables(boolean drop) throws SQLException {
       Connection c = getConnection();
+      if (!drop && DB.hasTable(c, "POS") && !DB.hasColumn(c, "POS", "PKEY")) {
+        throw new SQLException("[" + name + "] POS is keyed by FEN, drop POS and POS_MOVES and import again");
+      }
       DB.createTable(c, "POS", createPOSTableSQL, drop);
       DB.createTable(c, "POS_MOVES", createPOS_MOVESTableSQL, drop);
     }
@@ -87,106 +193,93 @@ import java.util.List;
       return cx;
     }
 
-    PreparedStatement getStatment(GameResult result) throws SQLException {
-      switch (result) {
-      case WHITE_WON:
-        if (pstmtW == null) {
-          pstmtW = getConnection().prepareStatement(sqlW, Statement.RETURN_GENERATED_KEYS);
-        }
-        return pstmtW;
-      case DRAW:
-        if (pstmtD == null) {
-          pstmtD = getConnection().prepareStatement(sqlD, Statement.RETURN_GENERATED_KEYS);
-        }
-        return pstmtD;
-      case BLACK_WON:
-        if (pstmtB == null) {
-          pstmtB = getConnection().prepareStatement(sqlB, Statement.RETURN_GENERATED_KEYS);
-        }
-        return pstmtB;
-      }
-      return null;
-    }
-
+    // positions are keyed by their zobrist key (Board.getZobristKey), the FEN is only kept with STORE_FEN
     final static String createPOSTableSQL = "create CACHED table POS ("
-        + "pid INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH " + Integer.MIN_VALUE + ") PRIMARY KEY "
-        + ",Fen varchar(96) unique"
+        + "PKey BIGINT PRIMARY KEY"
+        + ",Fen varchar(96)"
         + ",W INTEGER  "
         + ",Draw INTEGER  "
         + ",B INTEGER "
         + ");";
 
     final static String createPOS_MOVESTableSQL = "create CACHED table POS_MOVES ("
-        + "pmid INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH " + Integer.MIN_VALUE + ") PRIMARY KEY "
-        + ",PFen INTEGER "
-        + ",CFen INTEGER "
+        + "PKey BIGINT "
         + ",Move SMALLINT "
-        + ",UNIQUE(PFen,Move,CFen) "
+        + ",CKey BIGINT "
+        + ",PRIMARY KEY(PKey,Move,CKey) "
         + ");";
 
-    final static String sqlW = "MERGE INTO POS as t "
-        + " USING (VALUES( ? ))" + " AS v(fen)"
-        + " ON t.Fen=v.fen"
+    // results are added up by the aggregator, so one row per position and flush
+    final static String sqlPos = "MERGE INTO POS as t "
+        + " USING (VALUES(CAST(? AS BIGINT), CAST(? AS VARCHAR(96)),"
+        + " CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS INTEGER)))"
+        + " AS v(k, fen, w, d, b)"
+        + " ON t.PKey=v.k"
         + " WHEN MATCHED THEN"
-        + "   UPDATE SET t.W=t.W+1"
+        + "   UPDATE SET t.W=t.W+v.w, t.Draw=t.Draw+v.d, t.B=t.B+v.b"
         + " WHEN NOT MATCHED THEN"
-        + "   INSERT VALUES DEFAULT, v.fen, 1,0,0;";
+        + "   INSERT VALUES v.k, v.fen, v.w, v.d, v.b;";
 
-    final static String sqlD = "MERGE INTO POS as t "
-        + " USING (VALUES( ? ))" + " AS v(fen)"
-        + " ON t.Fen=v.fen"
-        + " WHEN MATCHED THEN"
-        + "   UPDATE SET t.Draw=t.Draw+1"
-        + " WHEN NOT MATCHED THEN"
-        + "   INSERT VALUES DEFAULT, v.fen, 0,1,0;";
+    final static String sqlM = "MERGE INTO POS_MOVES as t"
+        + " USING (VALUES(CAST(? AS BIGINT), CAST(? AS SMALLINT), CAST(? AS BIGINT)))"
+        + " AS vals(parent, move, child) on t.PKey=vals.parent AND t.Move=vals.move AND t.CKey=vals.child"
+        + " WHEN NOT MATCHED THEN INSERT VALUES vals.parent, vals.move, vals.child";
 
-    final static String sqlB = "MERGE INTO POS as t "
-        + " USING (VALUES( ? ))" + " AS v(fen)"
-        + " ON t.Fen=v.fen"
-        + " WHEN MATCHED THEN"
-        + "   UPDATE SET t.B=t.B+1"
-        + " WHEN NOT MATCHED THEN"
-        + "   INSERT VALUES DEFAULT, v.fen, 0,0,1;";
-
-    final static String sqlM = "MERGE INTO POS_MOVES as t USING (VALUES(?,?,?))"
-        + "AS vals(parent, child, move) on t.PFen=vals.parent AND t.CFen=vals.child AND t.Move=vals.move "
-        + "WHEN NOT MATCHED THEN INSERT VALUES DEFAULT ,vals.parent, vals.child, vals.move";
-
-    public void storeMoves(List<Utils.Triple<String, Short, String>> movesToStore,
-        GameResult result)
+    /**
+     * Aggregate the positions of a game, flushed when the aggregator is full
+     * or on commit: keys[i + 1] is reached by moveIds[i], fens may hold nulls
+     */
+    public void storeMoves(long[] keys, String[] fens, short[] moveIds, int count, GameResult result)
         throws SQLException {
+      aggregator.add(keys, fens, moveIds, count, result);
+      if (aggregator.isFull()) {
+        flush();
+      }
+    }
 
-      PreparedStatement pstmt = getStatment(result);
-      
-      if (pstmtM==null) {
+    public void flush() throws SQLException {
+      if (aggregator.isEmpty()) {
+        return;
+      }
+      long start = System.currentTimeMillis();
+      if (pstmtPos == null) {
+        pstmtPos = getConnection().prepareStatement(sqlPos);
+      }
+      if (pstmtM == null) {
         pstmtM = getConnection().prepareStatement(sqlM);
       }
 
-      for (Utils.Triple<String, Short, String> triple : movesToStore) {
-        pstmt.setString(1, triple.z);
-        pstmt.addBatch();
+      // sorted on the primary keys, in batches
+      int[] slots = aggregator.sortedPositions();
+      for (int from = 0; from < slots.length; from += BATCH_SIZE) {
+        int to = Math.min(slots.length, from + BATCH_SIZE);
+        for (int i = from; i < to; i++) {
+          int slot = slots[i];
+          pstmtPos.setLong(1, aggregator.getKey(slot));
+          pstmtPos.setString(2, aggregator.getFen(slot));
+          pstmtPos.setInt(3, aggregator.getW(slot));
+          pstmtPos.setInt(4, aggregator.getDraw(slot));
+          pstmtPos.setInt(5, aggregator.getB(slot));
+          pstmtPos.addBatch();
+        }
+        pstmtPos.executeBatch();
       }
 
-      try {
-        int[] res = pstmt.executeBatch();
-      } catch (SQLException e) {
-        e.printStackTrace();
-        System.out.println(movesToStore.toString());
-      }
-      ResultSet rs = pstmt.getGeneratedKeys();
-      Integer oldPosId = null;
-      for (Utils.Triple<String, Short, String> triple : movesToStore) {
-        rs.next();
-        Integer newPosId = rs.getInt(1);
-        if (oldPosId != null) {
-          pstmtM.setInt(1, oldPosId);
-          pstmtM.setInt(2, newPosId);
-          pstmtM.setShort(3, triple.y);
+      int[] edges = aggregator.sortedEdges();
+      for (int from = 0; from < edges.length; from += BATCH_SIZE) {
+        int to = Math.min(edges.length, from + BATCH_SIZE);
+        for (int i = from; i < to; i++) {
+          int edge = edges[i];
+          pstmtM.setLong(1, aggregator.getParent(edge));
+          pstmtM.setShort(2, aggregator.getMove(edge));
+          pstmtM.setLong(3, aggregator.getChild(edge));
           pstmtM.addBatch();
         }
-        oldPosId = newPosId;
-      } 
-      pstmtM.executeBatch();
+        pstmtM.executeBatch();
+      }
+      Utils.info("[" + name + "] FLUSH", slots.length + " positions", edges.length + " edges",
+          (System.currentTimeMillis() - start) + " ms", aggregator.metrics());
+      aggregator.clear();
     }
 
   }
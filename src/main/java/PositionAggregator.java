@@ -0,0 +1,277 @@
+import com.github.bhlangonijr.chesslib.game.GameResult;
+import java.util.Arrays;
+
+/**
+ * W/Draw/B counters and edges of the positions seen since the last flush.
+ * The opening plies are shared by most games, so a position is sent to the
+ * DB once per flush with the sum of its results instead of once per game.
+ * <p>
+ * Both tables are open addressing arrays keyed by the zobrist key of the
+ * position, sized for maxEntries so they never grow: the owner flushes once
+ * {@link #isFull()}, which is checked between games, so there is room for
+ * one more game on top of maxEntries. The FEN is optional and only carried along.
+ */
+public class PositionAggregator {
+
+  // positions a game can add past maxEntries before isFull() is checked
+  private static final int GAME_POSITIONS = Importer.DecodedGame.MAX_POSITIONS;
+  private static final int MAX_ENTRIES = 1 << 28;
+
+  private final int maxEntries;
+  private final int mask;
+
+  // positions
+  private final long[] keys;
+  private final String[] fens;
+  private final boolean[] usedPositions;
+  private final int[] w;
+  private final int[] draw;
+  private final int[] b;
+  private int positions;
+
+  // edges: parent key, move, child key
+  private final long[] parents;
+  private final long[] children;
+  private final short[] moves;
+  private final boolean[] usedEdges;
+  private int edges;
+
+  private int[] scratch = new int[0];
+
+  private long positionUpdates;
+  private long edgeUpdates;
+  private long positionRows;
+  private long edgeRows;
+
+  public PositionAggregator(int maxEntries) {
+    if (maxEntries < 1 || maxEntries > MAX_ENTRIES) {
+      throw new IllegalArgumentException("aggregateSize must be in [1, " + MAX_ENTRIES + "]: " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    // at most half full
+    int capacity = Integer.highestOneBit((Math.max(16, maxEntries) + GAME_POSITIONS) * 2 - 1) << 1;
+    this.mask = capacity - 1;
+    keys = new long[capacity];
+    fens = new String[capacity];
+    usedPositions = new boolean[capacity];
+    w = new int[capacity];
+    draw = new int[capacity];
+    b = new int[capacity];
+    parents = new long[capacity];
+    children = new long[capacity];
+    moves = new short[capacity];
+    usedEdges = new boolean[capacity];
+  }
+
+  private static int hash(long key) {
+    key *= 0x9E3779B97F4A7C15L;
+    return (int) (key ^ (key >>> 32));
+  }
+
+  /**
+   * Add the positions of a game: keys[i + 1] is reached from keys[i] by moveIds[i]
+   *
+   * @param count number of positions, start position included
+   */
+  public void add(long[] keys, String[] fens, short[] moveIds, int count, GameResult result) {
+    if (count > GAME_POSITIONS) {
+      throw new IllegalArgumentException("More than " + GAME_POSITIONS + " positions: " + count);
+    }
+    for (int i = 0; i < count; i++) {
+      int slot = position(keys[i], fens[i]);
+      switch (result) {
+      case WHITE_WON:
+        w[slot]++;
+        break;
+      case DRAW:
+        draw[slot]++;
+        break;
+      case BLACK_WON:
+        b[slot]++;
+        break;
+      default:
+        break;
+      }
+      positionUpdates++;
+      if (i > 0) {
+        edge(keys[i - 1], moveIds[i - 1], keys[i]);
+        edgeUpdates++;
+      }
+    }
+  }
+
+  private int position(long key, String fen) {
+    int slot = hash(key) & mask;
+    while (usedPositions[slot]) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    usedPositions[slot] = true;
+    keys[slot] = key;
+    fens[slot] = fen;
+    positions++;
+    return slot;
+  }
+
+  private void edge(long parent, short move, long child) {
+    int slot = hash(parent ^ Long.rotateLeft(child, 21) ^ ((long) move << 48)) & mask;
+    while (usedEdges[slot]) {
+      if (parents[slot] == parent && children[slot] == child && moves[slot] == move) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    usedEdges[slot] = true;
+    parents[slot] = parent;
+    children[slot] = child;
+    moves[slot] = move;
+    edges++;
+  }
+
+  /** time to flush */
+  public boolean isFull() {
+    return positions >= maxEntries || edges >= maxEntries;
+  }
+
+  public boolean isEmpty() {
+    return positions == 0;
+  }
+
+  /** slots of the positions, in key order */
+  public int[] sortedPositions() {
+    int[] slots = usedSlots(usedPositions, positions);
+    sort(slots, 0, slots.length, false);
+    return slots;
+  }
+
+  /** slots of the edges, in (parent key, move, child key) order */
+  public int[] sortedEdges() {
+    int[] slots = usedSlots(usedEdges, edges);
+    sort(slots, 0, slots.length, true);
+    return slots;
+  }
+
+  private int[] usedSlots(boolean[] used, int count) {
+    int[] slots = new int[count];
+    int n = 0;
+    for (int i = 0; i <= mask; i++) {
+      if (used[i]) {
+        slots[n++] = i;
+      }
+    }
+    if (scratch.length < count) {
+      scratch = new int[count];
+    }
+    return slots;
+  }
+
+  private int compare(int x, int y, boolean edge) {
+    if (!edge) {
+      return Long.compare(keys[x], keys[y]);
+    }
+    int c = Long.compare(parents[x], parents[y]);
+    if (c == 0) {
+      c = Short.compare(moves[x], moves[y]);
+    }
+    if (c == 0) {
+      c = Long.compare(children[x], children[y]);
+    }
+    return c;
+  }
+
+  // merge sort of the slots on the primitive arrays, merging through scratch
+  private void sort(int[] slots, int from, int to, boolean edge) {
+    if (to - from <= 16) {
+      for (int i = from + 1; i < to; i++) {
+        int slot = slots[i];
+        int j = i;
+        while (j > from && compare(slot, slots[j - 1], edge) < 0) {
+          slots[j] = slots[j - 1];
+          j--;
+        }
+        slots[j] = slot;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    sort(slots, from, mid, edge);
+    sort(slots, mid, to, edge);
+    if (compare(slots[mid - 1], slots[mid], edge) <= 0) {
+      return;
+    }
+    System.arraycopy(slots, from, scratch, from, to - from);
+    int i = from;
+    int j = mid;
+    int k = from;
+    while (i < mid && j < to) {
+      slots[k++] = compare(scratch[j], scratch[i], edge) < 0 ? scratch[j++] : scratch[i++];
+    }
+    while (i < mid) {
+      slots[k++] = scratch[i++];
+    }
+    while (j < to) {
+      slots[k++] = scratch[j++];
+    }
+  }
+
+  public long getKey(int slot) {
+    return keys[slot];
+  }
+
+  public String getFen(int slot) {
+    return fens[slot];
+  }
+
+  public int getW(int slot) {
+    return w[slot];
+  }
+
+  public int getDraw(int slot) {
+    return draw[slot];
+  }
+
+  public int getB(int slot) {
+    return b[slot];
+  }
+
+  public long getParent(int edge) {
+    return parents[edge];
+  }
+
+  public long getChild(int edge) {
+    return children[edge];
+  }
+
+  public short getMove(int edge) {
+    return moves[edge];
+  }
+
+  public int getPositions() {
+    return positions;
+  }
+
+  public int getEdges() {
+    return edges;
+  }
+
+  /** rows sent to the DB against updates received, the current ones included */
+  public String metrics() {
+    return "positions " + (positionRows + positions) + "/" + positionUpdates
+        + " edges " + (edgeRows + edges) + "/" + edgeUpdates;
+  }
+
+  public void clear() {
+    positionRows += positions;
+    edgeRows += edges;
+    Arrays.fill(fens, null);
+    Arrays.fill(usedPositions, false);
+    Arrays.fill(w, 0);
+    Arrays.fill(draw, 0);
+    Arrays.fill(b, 0);
+    Arrays.fill(usedEdges, false);
+    positions = 0;
+    edges = 0;
+  }
+}
@@ -0,0 +1,206 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One step of the import pipeline: a bounded input queue drained by a fixed
+ * number of worker threads, each result being put on the next stage.
+ * A full queue blocks the producer, so a slow stage throttles the ones before it.
+ */
+public class Stage<I, O> {
+
+  public interface Worker<I, O> {
+    /** @return the item for the next stage, or null to drop it */
+    O process(I item) throws Exception;
+  }
+
+  /**
+   * Worker batching on its own: tick() is called after every item and at least
+   * every POLL_MS, done() once the input is finished
+   */
+  public interface BatchWorker<I, O> extends Worker<I, O> {
+    void tick() throws Exception;
+
+    void done() throws Exception;
+  }
+
+  private static final long POLL_MS = 100;
+
+  final String name;
+  private final int parallelism;
+  private final int capacity;
+  private final BlockingQueue<I> queue;
+  private final Worker<I, O> worker;
+  private Stage<O, ?> next;
+  private Thread[] threads;
+  private volatile boolean closed;
+  private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+  private final AtomicLong in = new AtomicLong();
+  private final AtomicLong out = new AtomicLong();
+  private final AtomicLong busyNanos = new AtomicLong();
+  private volatile int maxDepth;
+  private long startTime;
+  private long endTime;
+
+  public Stage(String name, int parallelism, int capacity, Worker<I, O> worker) {
+    this.name = name;
+    this.parallelism = parallelism;
+    this.capacity = capacity;
+    this.queue = new ArrayBlockingQueue<I>(capacity);
+    this.worker = worker;
+  }
+
+  /** chain the stage receiving the results, returns it */
+  public <N> Stage<O, N> then(Stage<O, N> next) {
+    this.next = next;
+    return next;
+  }
+
+  /** start the workers of this stage and the next ones */
+  public void start() {
+    if (next != null) {
+      next.start();
+    }
+    startTime = System.currentTimeMillis();
+    threads = new Thread[parallelism];
+    for (int i = 0; i < parallelism; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          work();
+        }
+      }, name + "-" + i);
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  /** blocks while the queue is full */
+  public void put(I item) throws InterruptedException {
+    checkFailure();
+    queue.put(item);
+    in.incrementAndGet();
+    int depth = queue.size();
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+  }
+
+  private void work() {
+    BatchWorker<I, O> batching = worker instanceof BatchWorker ? (BatchWorker<I, O>) worker : null;
+    try {
+      while (true) {
+        I item = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+        if (item == null && closed && queue.isEmpty()) {
+          if (batching != null && failure.get() == null) {
+            run(batching, true);
+          }
+          return;
+        }
+        if (failure.get() != null) {
+          continue; // drain, so that the producers don't block
+        }
+        if (item != null) {
+          try {
+            long t = System.nanoTime();
+            O result = worker.process(item);
+            busyNanos.addAndGet(System.nanoTime() - t);
+            if (result != null && next != null) {
+              next.put(result);
+              out.incrementAndGet();
+            }
+          } catch (Throwable e) {
+            fail(e);
+          }
+        }
+        if (batching != null) {
+          run(batching, false);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run(BatchWorker<I, O> batching, boolean done) {
+    try {
+      long t = System.nanoTime();
+      if (done) {
+        batching.done();
+      } else {
+        batching.tick();
+      }
+      busyNanos.addAndGet(System.nanoTime() - t);
+    } catch (Throwable e) {
+      fail(e);
+    }
+  }
+
+  private void fail(Throwable e) {
+    failure.compareAndSet(null, e);
+    Utils.info("[" + name + "] FAILED", e.toString());
+  }
+
+  /**
+   * No more items: wait for the queue to drain, then close the next stages
+   */
+  public void finish() throws Exception {
+    closed = true;
+    for (Thread t : threads) {
+      t.join();
+    }
+    endTime = System.currentTimeMillis();
+    if (next != null) {
+      next.finish();
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() {
+    Throwable e = failure.get();
+    if (e != null) {
+      throw new IllegalStateException("Stage " + name + " failed", e);
+    }
+  }
+
+  public long getIn() {
+    return in.get();
+  }
+
+  public long getOut() {
+    return out.get();
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public int getMaxQueueDepth() {
+    return maxDepth;
+  }
+
+  /** items processed per second since start */
+  public float getThroughput() {
+    long end = endTime > 0 ? endTime : System.currentTimeMillis();
+    long elapsed = Math.max(1, end - startTime);
+    return (in.get() - queue.size()) * 1000f / elapsed;
+  }
+
+  /** share of the workers' wall time spent processing, in % */
+  public int getBusy() {
+    long end = endTime > 0 ? endTime : System.currentTimeMillis();
+    long elapsed = Math.max(1, end - startTime) * 1000000L * parallelism;
+    return (int) (busyNanos.get() * 100 / elapsed);
+  }
+
+  /** metrics of this stage and the next ones */
+  public String metrics() {
+    String s = name + "[threads " + parallelism + " in " + getIn() + " out " + getOut()
+        + " /s " + (int) getThroughput() + " queue " + getQueueDepth() + "/" + capacity
+        + " max " + getMaxQueueDepth() + " busy " + getBusy() + "%]";
+    return next == null ? s : s + " -> " + next.metrics();
+  }
+}
@@ -213,6 +213,14 @@ public class Bitboard {
             sq2H1(A8), sq2H1(B8), sq2H1(C8), sq2H1(D8), sq2H1(E8), sq2H1(F8), sq2H1(G8), sq2H1(H8)
     };
 
+    // slider attacks are looked up in magic tables unless disabled
+    private static boolean magicBitboards = true;
+
+    // squares strictly between two squares on the same rank, file or diagonal
+    final static long squaresBetween[][] = new long[64][64];
+    // the whole rank, file or diagonal through two squares
+    final static long squaresOnLine[][] = new long[64][64];
+
     static {
         for (int x = 0; x <= 256; x++) {
             ms1bTable[x] = slowMs1b8bits(x);
@@ -220,6 +228,24 @@ public class Bitboard {
         for (int x = 0; x < 64; x++) {
             bbTable[x] = sq2Bb(Square.squareAt(x));
         }
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) {
+                if (x == y) {
+                    continue;
+                }
+                if ((getRookAttacksClassical(0L, x) & bbTable[y]) != 0L) {
+                    squaresBetween[x][y] = getRookAttacksClassical(bbTable[y], x) &
+                            getRookAttacksClassical(bbTable[x], y);
+                    squaresOnLine[x][y] = (getRookAttacksClassical(0L, x) &
+                            getRookAttacksClassical(0L, y)) | bbTable[x] | bbTable[y];
+                } else if ((getBishopAttacksClassical(0L, x) & bbTable[y]) != 0L) {
+                    squaresBetween[x][y] = getBishopAttacksClassical(bbTable[y], x) &
+                            getBishopAttacksClassical(bbTable[x], y);
+                    squaresOnLine[x][y] = (getBishopAttacksClassical(0L, x) &
+                            getBishopAttacksClassical(0L, y)) | bbTable[x] | bbTable[y];
+                }
+            }
+        }
     }
 
     final static long sq2Bb(Square x) {
@@ -285,17 +311,39 @@ public class Bitboard {
         return (((bbTable[sq2] | (bbTable[sq2] - bbTable[sq1]))) & bb);
     }
 
+    /**
+     * Squares strictly between two squares sharing a rank, file or diagonal
+     *
+     * @param sq1
+     * @param sq2
+     * @return the squares between, or 0 if the squares are not aligned
+     */
+    public static long getSquaresBetween(Square sq1, Square sq2) {
+        return squaresBetween[sq1.ordinal()][sq2.ordinal()];
+    }
+
+    /**
+     * Rank, file or diagonal through two squares, edge to edge
+     *
+     * @param sq1
+     * @param sq2
+     * @return the squares on the line, or 0 if the squares are not aligned
+     */
+    public static long getSquaresOnLine(Square sq1, Square sq2) {
+        return squaresOnLine[sq1.ordinal()][sq2.ordinal()];
+    }
+
     /**
      * extract least significant bit of a bitboard
      *
      * @param bb
      * @return
      */
-    public static long extractLsb(Long bb) {
+    public static long extractLsb(long bb) {
         return bb & (bb - 1);
     }
 
-    public static boolean hasOnly1Bit(Long bb) {
+    public static boolean hasOnly1Bit(long bb) {
         return bb > 0L && extractLsb(bb) == 0L;
     }
 
@@ -335,8 +383,10 @@ public class Bitboard {
      * @return
      */
     public static long getBishopAttacks(long mask, Square square) {
-        return getSliderAttacks(diagA1H8Attacks[square.ordinal()], mask, square.ordinal()) |
-                getSliderAttacks(diagH1A8Attacks[square.ordinal()], mask, square.ordinal());
+        if (magicBitboards) {
+            return MagicTables.getBishopAttacks(mask, square.ordinal());
+        }
+        return getBishopAttacksClassical(mask, square.ordinal());
     }
 
     /**
@@ -347,8 +397,51 @@ public class Bitboard {
      * @return
      */
     public static long getRookAttacks(long mask, Square square) {
-        return getSliderAttacks(fileAttacks[square.ordinal()], mask, square.ordinal()) |
-                getSliderAttacks(rankAttacks[square.ordinal()], mask, square.ordinal());
+        if (magicBitboards) {
+            return MagicTables.getRookAttacks(mask, square.ordinal());
+        }
+        return getRookAttacksClassical(mask, square.ordinal());
+    }
+
+    /**
+     * Get the bishop attacks by scanning the diagonals from the square
+     *
+     * @param mask
+     * @param index
+     * @return
+     */
+    static long getBishopAttacksClassical(long mask, int index) {
+        return getSliderAttacks(diagA1H8Attacks[index], mask, index) |
+                getSliderAttacks(diagH1A8Attacks[index], mask, index);
+    }
+
+    /**
+     * Get the rook attacks by scanning the file and rank from the square
+     *
+     * @param mask
+     * @param index
+     * @return
+     */
+    static long getRookAttacksClassical(long mask, int index) {
+        return getSliderAttacks(fileAttacks[index], mask, index) |
+                getSliderAttacks(rankAttacks[index], mask, index);
+    }
+
+    /**
+     * @return true if slider attacks are looked up in the magic tables
+     */
+    public static boolean isMagicBitboards() {
+        return magicBitboards;
+    }
+
+    /**
+     * Select how slider attacks are computed: magic table lookups (default)
+     * or the classical bit scan over rays
+     *
+     * @param magicBitboards
+     */
+    public static void setMagicBitboards(boolean magicBitboards) {
+        Bitboard.magicBitboards = magicBitboards;
     }
 
     /**
@@ -486,6 +579,113 @@ public class Bitboard {
         return fileBB[file.ordinal()];
     }
 
+    /**
+     * Magic bitboard tables for sliding pieces. For every square the relevant
+     * occupancy is multiplied by a magic number and shifted to get an index in
+     * a table of precomputed attacks, filled when the tables are first used.
+     */
+    private static class MagicTables {
+
+        private static final long border = rankBB[0] | rankBB[7] | fileBB[0] | fileBB[7];
+
+        private static final long bishopMagic[] = {
+                0x0020081001282220L, 0x2020120095010000L, 0x1004840400402c02L, 0x0164070204000111L,
+                0x0104042062000080L, 0x2820826020800080L, 0x40004410c8080000L, 0x0200410400a08400L,
+                0x0020491001121400L, 0x020004102c405080L, 0xc808124084010003L, 0x8150220a02000040L,
+                0x0200811140058262L, 0x0549848230400004L, 0x000024680c042020L, 0x8080890134822000L,
+                0x00200cc004049092L, 0x1004012004340040L, 0x0810050100448100L, 0x0000820802004002L,
+                0xc004008210220080L, 0x8000400808021004L, 0x1580404104022084L, 0x0002400206008401L,
+                0x5208084104103004L, 0x0014042002180820L, 0x0200404808008100L, 0x8820840118012020L,
+                0x0110840000802000L, 0x024c450002028200L, 0x8400840a010c2200L, 0x5028550002029a02L,
+                0x0101602000080800L, 0x0024502812020200L, 0x0026209000080124L, 0x8018200800c50104L,
+                0x0000410042040040L, 0x0002008a00090050L, 0x413004084000a200L, 0x2001041900a12d00L,
+                0x0011100210142200L, 0x8c190402028a2040L, 0x2006840041104800L, 0x0000004200900800L,
+                0x1004400810400200L, 0x044200d001000080L, 0x8210810204050080L, 0x2004280044408100L,
+                0x100c00840421041aL, 0x00812c02081ca020L, 0x6000020120880001L, 0x00800d4020880004L,
+                0x01001012a20a0000L, 0x81004010140ec508L, 0x081004082084000cL, 0x0090010821004000L,
+                0x0800110410040404L, 0x001044404a482000L, 0xa608088022211000L, 0x0200001814420200L,
+                0x001e0020520a0210L, 0xa0080c1070010841L, 0x8021400842408a12L, 0x4b20040102042a00L
+        };
+        private static final long rookMagic[] = {
+                0x1480034000a08018L, 0x5040001000402000L, 0x99000a6000d10041L, 0x528008001001c480L,
+                0x0100100801000402L, 0x8100040002010008L, 0x0380008019000200L, 0x0100020020408100L,
+                0x4021800080400020L, 0x0000802000400082L, 0x8000802000100088L, 0x8000801000080080L,
+                0x1202002012000408L, 0x0010800400800200L, 0x8001000401000200L, 0x000200020040a904L,
+                0x0080004020004008L, 0x0100860040210201L, 0x00304a0010220081L, 0x0441210010030108L,
+                0x1028010005001008L, 0x0040808004000200L, 0x0444040090024801L, 0x094402002c004287L,
+                0x000385248000400aL, 0x8000820200402102L, 0x4017011100402006L, 0x1409081200204200L,
+                0x2000080080800400L, 0x0822000200081004L, 0x0000480400020190L, 0x0200008200010044L,
+                0x1024400022800081L, 0x0660003000c00040L, 0x0008820022001040L, 0x1000880282801000L,
+                0x8000110005000800L, 0x8814008004800200L, 0x0800104104000208L, 0x0081008102000044L,
+                0x2100400280218000L, 0x0800500020024000L, 0x12200100a4450010L, 0x10040c1001010020L,
+                0x8801000801850010L, 0x0820020004008080L, 0x0802100108040002L, 0x1009408100420004L,
+                0x8408510222028200L, 0x8080410826008200L, 0x40c0200100104100L, 0x11b4100008028080L,
+                0x0004800400080080L, 0x2080040080020080L, 0x0001000200040100L, 0x8800440041008200L,
+                0x008211012080c202L, 0x0005020082221042L, 0x1881002000100841L, 0x4309021000040821L,
+                0x0101000208001005L, 0x000100080400822dL, 0x0033211098100204L, 0x8004042104004882L
+        };
+
+        private static final long bishopMask[] = new long[64];
+        private static final int bishopShift[] = new int[64];
+        private static final int bishopOffset[] = new int[64];
+        private static final long bishopTable[];
+
+        private static final long rookMask[] = new long[64];
+        private static final int rookShift[] = new int[64];
+        private static final int rookOffset[] = new int[64];
+        private static final long rookTable[];
+
+        static {
+            int bishopSize = 0;
+            int rookSize = 0;
+            for (int sq = 0; sq < 64; sq++) {
+                bishopMask[sq] = (diagA1H8Attacks[sq] | diagH1A8Attacks[sq]) & ~border;
+                rookMask[sq] = (fileAttacks[sq] & ~(rankBB[0] | rankBB[7])) |
+                        (rankAttacks[sq] & ~(fileBB[0] | fileBB[7]));
+                bishopShift[sq] = 64 - Long.bitCount(bishopMask[sq]);
+                rookShift[sq] = 64 - Long.bitCount(rookMask[sq]);
+                bishopOffset[sq] = bishopSize;
+                rookOffset[sq] = rookSize;
+                bishopSize += 1 << (64 - bishopShift[sq]);
+                rookSize += 1 << (64 - rookShift[sq]);
+            }
+            bishopTable = new long[bishopSize];
+            rookTable = new long[rookSize];
+            for (int sq = 0; sq < 64; sq++) {
+                fillTable(sq, bishopMask[sq], bishopMagic[sq], bishopShift[sq],
+                        bishopTable, bishopOffset[sq], false);
+                fillTable(sq, rookMask[sq], rookMagic[sq], rookShift[sq],
+                        rookTable, rookOffset[sq], true);
+            }
+        }
+
+        static long getBishopAttacks(long occupied, int sq) {
+            return bishopTable[bishopOffset[sq] +
+                    (int) (((occupied & bishopMask[sq]) * bishopMagic[sq]) >>> bishopShift[sq])];
+        }
+
+        static long getRookAttacks(long occupied, int sq) {
+            return rookTable[rookOffset[sq] +
+                    (int) (((occupied & rookMask[sq]) * rookMagic[sq]) >>> rookShift[sq])];
+        }
+
+        // walk every occupancy subset of the mask and store its attacks
+        private static void fillTable(int sq, long mask, long magic, int shift,
+                                      long table[], int offset, boolean rook) {
+            long subset = 0L;
+            do {
+                long attacks = rook ? getRookAttacksClassical(subset, sq) :
+                        getBishopAttacksClassical(subset, sq);
+                int index = offset + (int) ((subset * magic) >>> shift);
+                if (table[index] != 0L && table[index] != attacks) {
+                    throw new IllegalStateException("Bad magic number for square " + sq);
+                }
+                table[index] = attacks;
+                subset = (subset - mask) & mask;
+            } while (subset != 0L);
+        }
+    }
+
     /**
      * print a bitboard in a readble form
      *
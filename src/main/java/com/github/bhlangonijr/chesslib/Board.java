@@ -19,11 +19,13 @@ package com.github.bhlangonijr.chesslib;
 import com.github.bhlangonijr.chesslib.game.GameContext;
 import com.github.bhlangonijr.chesslib.move.Move;
 import com.github.bhlangonijr.chesslib.move.MoveGenerator;
-import com.github.bhlangonijr.chesslib.move.MoveList;
+import com.github.bhlangonijr.chesslib.move.PackedMove;
 
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -31,14 +33,51 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public class Board implements Cloneable, BoardEvent {
 
-    protected final LinkedList<MoveBackup> backup;
+    // zobrist keys are generated from a fixed seed so they are stable across runs
+    private static final long ZOBRIST_SEED = 49109794719L;
+    private static final long zobristPiece[][] = new long[Piece.values().length][64];
+    private static final long zobristCastle[][] = new long[Side.values().length][CastleRight.values().length];
+    private static final long zobristEnPassant[] = new long[64];
+    private static final long zobristSide;
+
+    static {
+        Random random = new Random(ZOBRIST_SEED);
+        for (Piece piece : Piece.values()) {
+            if (!Piece.NONE.equals(piece)) {
+                for (int sq = 0; sq < 64; sq++) {
+                    zobristPiece[piece.ordinal()][sq] = random.nextLong();
+                }
+            }
+        }
+        for (Side side : Side.values()) {
+            for (CastleRight right : CastleRight.values()) {
+                if (!CastleRight.NONE.equals(right)) {
+                    zobristCastle[side.ordinal()][right.ordinal()] = random.nextLong();
+                }
+            }
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            zobristEnPassant[sq] = random.nextLong();
+        }
+        zobristSide = random.nextLong();
+    }
+
+    private static final int INITIAL_BACKUP_CAPACITY = 256;
+    private static final int STATE_CACHE_SIZE = 64;
+    private static final byte STATE_HAS_MOVES = 1;
+    private static final byte STATE_NO_MOVES = 2;
+
+    private final List<MoveBackup> backupView = new BackupView();
+    private MoveBackup backup[] = new MoveBackup[INITIAL_BACKUP_CAPACITY];
+    private int backupSize;
     protected final EnumMap<BoardEventType, List<BoardEventListener>> eventListener;
-    private final EnumMap<Square, Piece> pieceOnSquare;
-    private final EnumMap<Piece, List<Square>> pieceSquares;
+    private final Piece pieceOnSquare[];
     private final long bitboard[];
     private final long bbSide[];
     private final EnumMap<Side, CastleRight> castleRight;
-    private final LinkedList<Integer> history = new LinkedList<Integer>();
+    private final List<Long> historyView = new HistoryView();
+    private long history[] = new long[128];
+    private int historySize;
     protected Side sideToMove;
     protected Square enPassantTarget;
     protected Square enPassant;
@@ -47,18 +86,20 @@ public class Board implements Cloneable, BoardEvent {
     protected GameContext context;
     protected boolean enableEvents;
     protected boolean updateHistory;
+    private long zobristKey;
+    // direct-mapped cache of whether positions have legal moves, by position key
+    private long stateKeys[];
+    private byte states[];
 
     public Board() {
         this(new GameContext(), false);
     }
 
     public Board(GameContext gameContext, boolean updateHistory) {
-        pieceOnSquare = new EnumMap<Square, Piece>(Square.class);
-        pieceSquares = new EnumMap<Piece, List<Square>>(Piece.class);
+        pieceOnSquare = new Piece[Square.values().length];
         bitboard = new long[Piece.values().length];
         bbSide = new long[Side.values().length];
         castleRight = new EnumMap<Side, CastleRight>(Side.class);
-        backup = new LinkedList<MoveBackup>();
         context = gameContext;
         eventListener = new EnumMap<BoardEventType, List<BoardEventListener>>(BoardEventType.class);
         this.updateHistory = updateHistory;
@@ -67,12 +108,7 @@ public class Board implements Cloneable, BoardEvent {
         setEnPassant(Square.NONE);
         setMoveCounter(0);
         setHalfMoveCounter(0);
-        for (Piece p : Piece.values()) {
-            pieceSquares.put(p, new CopyOnWriteArrayList<Square>());
-        }
-        for (Square s : Square.values()) {
-            pieceOnSquare.put(s, Piece.NONE);
-        }
+        Arrays.fill(pieceOnSquare, Piece.NONE);
         for (BoardEventType evt : BoardEventType.values()) {
             eventListener.put(evt, new CopyOnWriteArrayList<BoardEventListener>());
         }
@@ -101,11 +137,15 @@ public class Board implements Cloneable, BoardEvent {
     }
 
     public static boolean isPromoRank(Side side, Move move) {
+        return isPromoRank(side, move.getTo());
+    }
+
+    public static boolean isPromoRank(Side side, Square to) {
         if (side.equals(Side.WHITE) &&
-                move.getTo().getRank().equals(Rank.RANK_8)) {
+                to.getRank().equals(Rank.RANK_8)) {
             return true;
         } else if (side.equals(Side.BLACK) &&
-                move.getTo().getRank().equals(Rank.RANK_1)) {
+                to.getRank().equals(Rank.RANK_1)) {
             return true;
         }
 
@@ -132,49 +172,73 @@ public class Board implements Cloneable, BoardEvent {
         if (!isMoveLegal(move, fullValidation)) {
             return false;
         }
+        MoveBackup moveBackup = nextMoveBackup();
+        moveBackup.makeBackup(this, move);
+        return doMove(moveBackup, move.getFrom(), move.getTo(), move.getPromotion());
+    }
+
+    /**
+     * Execute a move packed as in {@link PackedMove}
+     *
+     * @param move
+     */
+    public boolean doMove(int move) {
+        return doMove(move, true);
+    }
+
+    /**
+     * Execute a move packed as in {@link PackedMove}. Moves coming from
+     * {@link com.github.bhlangonijr.chesslib.move.MoveGenerator#generateLegalMoves(Board, int[])}
+     * don't need full validation.
+     *
+     * @param move
+     * @param fullValidation
+     */
+    public boolean doMove(int move, boolean fullValidation) {
+        final Square from = PackedMove.getFrom(move);
+        final Square to = PackedMove.getTo(move);
+        final Piece promotion = PackedMove.getPromotion(move, getSideToMove());
+
+        if (!isMoveLegal(from, to, promotion, fullValidation)) {
+            return false;
+        }
+        MoveBackup moveBackup = nextMoveBackup();
+        moveBackup.makeBackup(this, move);
+        return doMove(moveBackup, from, to, promotion);
+    }
+
+    private boolean doMove(MoveBackup moveBackup, Square from, Square to, Piece promotion) {
 
-        Piece movingPiece = getPiece(move.getFrom());
-        Piece capturedPiece = getPiece(move.getTo());
+        Piece movingPiece = getPiece(from);
+        Piece capturedPiece;
         Side side = getSideToMove();
 
-        backup.add(new MoveBackup(this, move));
-        final boolean isCastle = context.isCastleMove(move);
+        backupSize++;
+        final boolean isCastle = context.isCastleMove(from, to);
 
         if (PieceType.KING.equals(movingPiece.getPieceType())) {
             if (isCastle) {
-                if (context.hasCastleRight(move, getCastleRight(side))) {
-                    CastleRight c = context.isKingSideCastle(move) ? CastleRight.KING_SIDE :
+                if (context.hasCastleRight(from, to, getCastleRight(side))) {
+                    CastleRight c = context.isKingSideCastle(from, to) ? CastleRight.KING_SIDE :
                             CastleRight.QUEEN_SIDE;
                     Move rookMove = context.getRookCastleMove(side, c);
                     movePiece(rookMove);
                 } else {
-                    backup.pollLast();
+                    backupSize--;
                     return false;
                 }
             }
-            getCastleRight().put(side, CastleRight.NONE);
+            setCastleRight(side, CastleRight.NONE);
         } else if (PieceType.ROOK.equals(movingPiece.getPieceType())) {
-            if (!CastleRight.NONE.equals(getCastleRight(side))) {
-                final Move oo = context.getRookoo(side);
-                final Move ooo = context.getRookooo(side);
-
-                if (move.getFrom().equals(oo.getFrom())) {
-                    if (CastleRight.KING_AND_QUEEN_SIDE.equals(getCastleRight(side))) {
-                        getCastleRight().put(side, CastleRight.QUEEN_SIDE);
-                    } else if (CastleRight.KING_SIDE.equals(getCastleRight(side))) {
-                        getCastleRight().put(side, CastleRight.NONE);
-                    }
-                } else if (move.getFrom().equals(ooo.getFrom())) {
-                    if (CastleRight.KING_AND_QUEEN_SIDE.equals(getCastleRight(side))) {
-                        getCastleRight().put(side, CastleRight.KING_SIDE);
-                    } else if (CastleRight.QUEEN_SIDE.equals(getCastleRight(side))) {
-                        getCastleRight().put(side, CastleRight.NONE);
-                    }
-                }
-            }
+            removeRookCastleRight(side, from);
+        }
+
+        final Piece targetPiece = getPiece(to);
+        if (PieceType.ROOK.equals(targetPiece.getPieceType())) {
+            removeRookCastleRight(targetPiece.getPieceSide(), to);
         }
 
-        capturedPiece = movePiece(move);
+        capturedPiece = movePiece(from, to, promotion);
 
         setEnPassantTarget(Square.NONE);
         setEnPassant(Square.NONE);
@@ -186,21 +250,21 @@ public class Board implements Cloneable, BoardEvent {
         }
 
         if (PieceType.PAWN.equals(movingPiece.getPieceType())) {
-            if (Math.abs(move.getTo().getRank().ordinal() -
-                    move.getFrom().getRank().ordinal()) == 2) {
+            if (Math.abs(to.getRank().ordinal() -
+                    from.getRank().ordinal()) == 2) {
                 Piece otherPawn = Side.WHITE.equals(side) ?
                         Piece.BLACK_PAWN : Piece.WHITE_PAWN;
-                if (hasPiece(otherPawn, move.getTo().getSideSquares())) {
-                    setEnPassantTarget(move.getTo());
+                if (hasPiece(otherPawn, to.getSideSquares())) {
+                    setEnPassantTarget(to);
                 }
-                setEnPassant(findEnPassant(move.getTo(), side));
+                setEnPassant(findEnPassant(to, side));
             }
             setHalfMoveCounter(0);
         }
 
         setSideToMove(side.flip());
         if (updateHistory) {
-            getHistory().addLast(this.hashCode());
+            pushHistory(getZobristKey());
         }
         setMoveCounter(getMoveCounter() + 1);
         //call listeners
@@ -208,23 +272,60 @@ public class Board implements Cloneable, BoardEvent {
                 eventListener.get(BoardEventType.ON_MOVE).size() > 0) {
             for (BoardEventListener evl :
                     eventListener.get(BoardEventType.ON_MOVE)) {
-                evl.onEvent(move);
+                evl.onEvent(moveBackup.getMove());
             }
         }
         return true;
     }
 
+    /*
+     * Remove the castle right of a rook leaving, or captured on, its initial square
+     */
+    private void removeRookCastleRight(Side side, Square rookSquare) {
+        if (!CastleRight.NONE.equals(getCastleRight(side))) {
+            final Move oo = context.getRookoo(side);
+            final Move ooo = context.getRookooo(side);
+
+            if (rookSquare.equals(oo.getFrom())) {
+                if (CastleRight.KING_AND_QUEEN_SIDE.equals(getCastleRight(side))) {
+                    setCastleRight(side, CastleRight.QUEEN_SIDE);
+                } else if (CastleRight.KING_SIDE.equals(getCastleRight(side))) {
+                    setCastleRight(side, CastleRight.NONE);
+                }
+            } else if (rookSquare.equals(ooo.getFrom())) {
+                if (CastleRight.KING_AND_QUEEN_SIDE.equals(getCastleRight(side))) {
+                    setCastleRight(side, CastleRight.KING_SIDE);
+                } else if (CastleRight.QUEEN_SIDE.equals(getCastleRight(side))) {
+                    setCastleRight(side, CastleRight.NONE);
+                }
+            }
+        }
+    }
+
     /**
      * Undo the last move executed on the board
      */
     public Move undoMove() {
-        Move move = null;
-        final MoveBackup b = backup.pollLast();
-        if (updateHistory) {
-            getHistory().pollLast();
+        final MoveBackup b = undoLastMove();
+        return b != null ? b.getMove() : null;
+    }
+
+    /**
+     * Undo the last move executed on the board, without allocating a Move
+     *
+     * @return the undone move packed as in {@link PackedMove}, or PackedMove.NONE
+     */
+    public int undoPackedMove() {
+        final MoveBackup b = undoLastMove();
+        return b != null ? b.getPackedMove() : PackedMove.NONE;
+    }
+
+    private MoveBackup undoLastMove() {
+        final MoveBackup b = backupSize > 0 ? backup[--backupSize] : null;
+        if (updateHistory && historySize > 0) {
+            historySize--;
         }
         if (b != null) {
-            move = b.getMove();
             b.restore(this);
         }
         //call listeners
@@ -235,7 +336,7 @@ public class Board implements Cloneable, BoardEvent {
                 evl.onEvent(b);
             }
         }
-        return move;
+        return b;
     }
 
     /*
@@ -300,21 +401,17 @@ public class Board implements Cloneable, BoardEvent {
         setEnPassant(Square.NONE);
         setMoveCounter(0);
         setHalfMoveCounter(0);
-        getHistory().clear();
+        historySize = 0;
 
-        for (Square sq : Square.values()) {
-            pieceOnSquare.put(sq, Piece.NONE);
-        }
-        for (Piece piece : Piece.values()) {
-            pieceSquares.get(piece).clear();
-        }
+        Arrays.fill(pieceOnSquare, Piece.NONE);
         for (int i = 0; i < bitboard.length; i++) {
             bitboard[i] = 0L;
         }
         for (int i = 0; i < bbSide.length; i++) {
             bbSide[i] = 0L;
         }
-        backup.clear();
+        backupSize = 0;
+        zobristKey = computeZobristKey();
     }
 
     /**
@@ -324,8 +421,8 @@ public class Board implements Cloneable, BoardEvent {
      * @param sq
      */
     public void setPiece(Piece piece, Square sq) {
-        pieceOnSquare.put(sq, piece);
-        pieceSquares.get(piece).add(sq);
+        zobristKey ^= zobristPiece[piece.ordinal()][sq.ordinal()];
+        pieceOnSquare[sq.ordinal()] = piece;
         bitboard[piece.ordinal()] |= sq.getBitboard();
         bbSide[piece.getPieceSide().ordinal()] |= sq.getBitboard();
     }
@@ -337,8 +434,8 @@ public class Board implements Cloneable, BoardEvent {
      * @param sq
      */
     public void unsetPiece(Piece piece, Square sq) {
-        pieceOnSquare.put(sq, Piece.NONE);
-        pieceSquares.get(piece).remove(sq);
+        zobristKey ^= zobristPiece[piece.ordinal()][sq.ordinal()];
+        pieceOnSquare[sq.ordinal()] = Piece.NONE;
         bitboard[piece.ordinal()] ^= sq.getBitboard();
         bbSide[piece.getPieceSide().ordinal()] ^= sq.getBitboard();
     }
@@ -402,7 +499,7 @@ public class Board implements Cloneable, BoardEvent {
                 if (!s.equals("-")) {
                     Square ep = Square.valueOf(s);
                     setEnPassant(ep);
-                    setEnPassantTarget(findEnPassantTarget(ep, sideToMove));
+                    setEnPassantTarget(findEnPassantTarget(ep, sideToMove.flip()));
                 } else {
                     setEnPassant(Square.NONE);
                     setEnPassantTarget(Square.NONE);
@@ -416,6 +513,11 @@ public class Board implements Cloneable, BoardEvent {
             }
         }
 
+        zobristKey = computeZobristKey();
+        if (updateHistory) {
+            pushHistory(zobristKey);
+        }
+
         //call listeners
         if (isEnableEvents() &&
                 eventListener.get(BoardEventType.ON_LOAD).size() > 0) {
@@ -538,7 +640,7 @@ public class Board implements Cloneable, BoardEvent {
      * @return
      */
     public Piece getPiece(Square sq) {
-        return pieceOnSquare.get(sq);
+        return pieceOnSquare[sq.ordinal()];
     }
 
     /**
@@ -571,21 +673,25 @@ public class Board implements Cloneable, BoardEvent {
     }
 
     /**
-     * Get the square(s) location of the given piece
+     * Get the square(s) location of the given piece, computed from its bitboard
      *
      * @param piece
      * @return
      */
     public List<Square> getPieceLocation(Piece piece) {
-        return pieceSquares.get(piece);
+        return Bitboard.bbToSquareList(getBitboard(piece));
     }
 
     /**
-     * Get piece list with locations
+     * Get piece list with locations, computed from the bitboards
      *
      * @return
      */
     public EnumMap<Piece, List<Square>> getPieceSquares() {
+        EnumMap<Piece, List<Square>> pieceSquares = new EnumMap<Piece, List<Square>>(Piece.class);
+        for (Piece piece : Piece.values()) {
+            pieceSquares.put(piece, getPieceLocation(piece));
+        }
         return pieceSquares;
     }
 
@@ -600,6 +706,9 @@ public class Board implements Cloneable, BoardEvent {
      * @param sideToMove the sideToMove to set
      */
     public void setSideToMove(Side sideToMove) {
+        if (Side.BLACK.equals(this.sideToMove) != Side.BLACK.equals(sideToMove)) {
+            zobristKey ^= zobristSide;
+        }
         this.sideToMove = sideToMove;
     }
 
@@ -628,6 +737,7 @@ public class Board implements Cloneable, BoardEvent {
      * @param enPassant the enPassant to set
      */
     public void setEnPassant(Square enPassant) {
+        zobristKey ^= enPassantKey(this.enPassant) ^ enPassantKey(enPassant);
         this.enPassant = enPassant;
     }
 
@@ -666,6 +776,15 @@ public class Board implements Cloneable, BoardEvent {
         return castleRight.get(side);
     }
 
+    /**
+     * @param side
+     * @param castleRight the castleRight to set
+     */
+    public void setCastleRight(Side side, CastleRight castleRight) {
+        zobristKey ^= castleKey(side, this.castleRight.get(side)) ^ castleKey(side, castleRight);
+        this.castleRight.put(side, castleRight);
+    }
+
     /**
      * @return the castleRight
      */
@@ -687,8 +806,37 @@ public class Board implements Cloneable, BoardEvent {
         this.context = context;
     }
 
-    public LinkedList<MoveBackup> getBackup() {
-        return backup;
+    /**
+     * @return a read-only view of the move backups, oldest first
+     */
+    public List<MoveBackup> getBackup() {
+        return backupView;
+    }
+
+    /**
+     * The backup of the last move executed on the board. Backups are reused,
+     * so the returned object is only valid until the move is undone.
+     *
+     * @return the last move backup, or null if there is none
+     */
+    public MoveBackup getLastMoveBackup() {
+        return backupSize > 0 ? backup[backupSize - 1] : null;
+    }
+
+    /*
+     * Free backup slot for the next move, the stack grows when the game
+     * gets longer than its capacity
+     */
+    private MoveBackup nextMoveBackup() {
+        if (backupSize == backup.length) {
+            backup = Arrays.copyOf(backup, backup.length * 2);
+        }
+        MoveBackup b = backup[backupSize];
+        if (b == null) {
+            b = new MoveBackup();
+            backup[backupSize] = b;
+        }
+        return b;
     }
 
     @Override
@@ -836,12 +984,11 @@ public class Board implements Cloneable, BoardEvent {
      * @return
      */
     public Square getKingSquare(Side side) {
-        Square result = Square.NONE;
-        List<Square> sq = getPieceLocation(Piece.make(side, PieceType.KING));
-        if (sq != null && sq.size() > 0) {
-            result = sq.get(0);
+        long king = getBitboard(Piece.make(side, PieceType.KING));
+        if (king == 0L) {
+            return Square.NONE;
         }
-        return result;
+        return Square.squareAt(Bitboard.bitScanForward(king));
     }
 
     /**
@@ -876,12 +1023,25 @@ public class Board implements Cloneable, BoardEvent {
      * @return
      */
     public boolean isMoveLegal(Move move, boolean fullValidation) {
+        return isMoveLegal(move.getFrom(), move.getTo(), move.getPromotion(), fullValidation);
+    }
 
-        final Piece fromPiece = getPiece(move.getFrom());
-        final Piece toPiece = getPiece(move.getTo());
+    /**
+     * Verify if a move is legal within this board context
+     *
+     * @param from
+     * @param to
+     * @param promotion
+     * @param fullValidation
+     * @return
+     */
+    public boolean isMoveLegal(Square from, Square to, Piece promotion, boolean fullValidation) {
+
+        final Piece fromPiece = getPiece(from);
+        final Piece toPiece = getPiece(to);
         final Side side = getSideToMove();
         final PieceType fromType = fromPiece.getPieceType();
-        final Piece capturedPiece = getPiece(move.getTo());
+        final Piece capturedPiece = toPiece;
 
         if (fullValidation) {
             if (Piece.NONE.equals(fromPiece)) {
@@ -897,14 +1057,14 @@ public class Board implements Cloneable, BoardEvent {
             }
 
             boolean pawnPromoting = fromPiece.getPieceType().equals(PieceType.PAWN) &&
-                    isPromoRank(side, move);
-            boolean hasPromoPiece = !move.getPromotion().equals(Piece.NONE);
+                    isPromoRank(side, to);
+            boolean hasPromoPiece = !promotion.equals(Piece.NONE);
 
             if (hasPromoPiece != pawnPromoting) {
                 return false;
             }
             if (fromType.equals(PieceType.KING)) {
-                if (getContext().isKingSideCastle(move)) {
+                if (getContext().isKingSideCastle(from, to)) {
                     if (getCastleRight(side).equals(CastleRight.KING_AND_QUEEN_SIDE) ||
                             (getCastleRight(side).equals(CastleRight.KING_SIDE))) {
                         if ((getBitboard() & getContext().getooSquaresBb(side)) == 0L) {
@@ -915,7 +1075,7 @@ public class Board implements Cloneable, BoardEvent {
                     }
                     return false;
                 }
-                if (getContext().isQueenSideCastle(move)) {
+                if (getContext().isQueenSideCastle(from, to)) {
                     if (getCastleRight(side).equals(CastleRight.KING_AND_QUEEN_SIDE) ||
                             (getCastleRight(side).equals(CastleRight.QUEEN_SIDE))) {
                         if ((getBitboard() & getContext().getoooSquaresBb(side)) == 0L) {
@@ -928,21 +1088,31 @@ public class Board implements Cloneable, BoardEvent {
                 }
             }
 
-            if (!isAttackedBy(move)) {
+            if (!isAttackedBy(from, to)) {
                 return false;
             }
         }
         if (fromType.equals(PieceType.KING)) {
-            if (squareAttackedBy(move.getTo(), side.flip()) != 0L) {
+            if (squareAttackedBy(to, side.flip()) != 0L) {
                 return false;
             }
         }
         Square kingSq = (fromType.equals(PieceType.KING) ?
-                move.getTo() : getKingSquare(side));
+                to : getKingSquare(side));
         Side other = side.flip();
-        long moveTo = move.getTo().getBitboard();
-        long moveFrom = move.getFrom().getBitboard();
+        long moveTo = to.getBitboard();
+        long moveFrom = from.getBitboard();
         long allPieces = (getBitboard() ^ moveFrom) | moveTo;
+        long epCaptured = 0L;
+
+        if (fromType.equals(PieceType.PAWN) &&
+                !Square.NONE.equals(getEnPassantTarget()) &&
+                toPiece.equals(Piece.NONE) &&
+                !from.getFile().equals(to.getFile())) {
+            // the captured pawn may be shielding the king along the rank
+            epCaptured = getEnPassantTarget().getBitboard();
+            allPieces ^= epCaptured;
+        }
 
         long bishopAndQueens = ((getBitboard(Piece.make(other, PieceType.BISHOP)) |
                 getBitboard(Piece.make(other, PieceType.QUEEN)))) & ~moveTo;
@@ -967,13 +1137,7 @@ public class Board implements Cloneable, BoardEvent {
             return false;
         }
 
-        long pawns = (getBitboard(Piece.make(other, PieceType.PAWN))) & ~moveTo;
-
-        if (fromPiece.getPieceType().equals(PieceType.PAWN) &&
-                !Square.NONE.equals(getEnPassantTarget()) &&
-                toPiece.equals(Piece.NONE)) {
-            pawns &= ~getEnPassantTarget().getBitboard();
-        }
+        long pawns = (getBitboard(Piece.make(other, PieceType.PAWN))) & ~moveTo & ~epCaptured;
 
         if (pawns != 0L &&
                 (Bitboard.getPawnAttacks(side, kingSq) & pawns) != 0L) {
@@ -984,44 +1148,78 @@ public class Board implements Cloneable, BoardEvent {
     }
 
     public boolean isAttackedBy(Move move) {
-        PieceType pieceType = getPiece(move.getFrom()).getPieceType();
+        return isAttackedBy(move.getFrom(), move.getTo());
+    }
+
+    public boolean isAttackedBy(Square from, Square to) {
+        PieceType pieceType = getPiece(from).getPieceType();
         Side side = getSideToMove();
         long attacks = 0L;
         switch (pieceType) {
             case PAWN:
-                if (!move.getFrom().getFile().equals(move.getTo().getFile())) {
-                    attacks = Bitboard.getPawnCaptures(side, move.getFrom(),
+                if (!from.getFile().equals(to.getFile())) {
+                    attacks = Bitboard.getPawnCaptures(side, from,
                             getBitboard(), getEnPassantTarget());
                 } else {
-                    attacks = Bitboard.getPawnMoves(side, move.getFrom(), getBitboard());
+                    attacks = Bitboard.getPawnMoves(side, from, getBitboard());
                 }
                 break;
             case KNIGHT:
-                attacks = Bitboard.getKnightAttacks(move.getFrom(), ~getBitboard(side));
+                attacks = Bitboard.getKnightAttacks(from, ~getBitboard(side));
                 break;
             case BISHOP:
-                attacks = Bitboard.getBishopAttacks(getBitboard(), move.getFrom());
+                attacks = Bitboard.getBishopAttacks(getBitboard(), from);
                 break;
             case ROOK:
-                attacks = Bitboard.getRookAttacks(getBitboard(), move.getFrom());
+                attacks = Bitboard.getRookAttacks(getBitboard(), from);
                 break;
             case QUEEN:
-                attacks = Bitboard.getQueenAttacks(getBitboard(), move.getFrom());
+                attacks = Bitboard.getQueenAttacks(getBitboard(), from);
                 break;
             case KING:
-                attacks = Bitboard.getKingAttacks(move.getFrom(), ~getBitboard(side));
+                attacks = Bitboard.getKingAttacks(from, ~getBitboard(side));
                 break;
             default:
                 break;
         }
-        return (attacks & move.getTo().getBitboard()) != 0L;
+        return (attacks & to.getBitboard()) != 0L;
+    }
+
+    /**
+     * @return a read-only view of the position keys played on this board
+     */
+    public List<Long> getHistory() {
+        return historyView;
+    }
+
+    private void pushHistory(long key) {
+        if (historySize == history.length) {
+            history = Arrays.copyOf(history, history.length * 2);
+        }
+        history[historySize++] = key;
     }
 
     /**
-     * @return the history
+     * Count how many times the current position was seen before. Only the
+     * plies since the last capture or pawn move are scanned, as no earlier
+     * position can be repeated.
+     *
+     * @return number of earlier occurrences of the last position key
      */
-    public LinkedList<Integer> getHistory() {
-        return history;
+    public int getRepetitionCount() {
+        if (historySize < 5) {
+            return 0;
+        }
+        final int last = historySize - 1;
+        final int limit = Math.min(last, getHalfMoveCounter());
+        final long lastKey = history[last];
+        int rept = 0;
+        for (int x = 4; x <= limit; x += 2) {
+            if (history[last - x] == lastKey) {
+                rept++;
+            }
+        }
+        return rept;
     }
 
     /**
@@ -1030,36 +1228,42 @@ public class Board implements Cloneable, BoardEvent {
      * @return
      */
     public boolean isMated() {
+        return isKingAttacked() && !hasAnyLegalMove();
+    }
+
+    /**
+     * Verify if the side to move has any legal move. The answer is cached
+     * by position key, so asking again for the same position is cheap.
+     *
+     * @return
+     */
+    public boolean hasAnyLegalMove() {
+        final long key = getZobristKey() ^ enPassantKey(getEnPassantTarget());
+        if (states == null) {
+            stateKeys = new long[STATE_CACHE_SIZE];
+            states = new byte[STATE_CACHE_SIZE];
+        }
+        final int index = (int) (key & (STATE_CACHE_SIZE - 1));
+        if (states[index] != 0 && stateKeys[index] == key) {
+            return states[index] == STATE_HAS_MOVES;
+        }
+        final boolean result;
         try {
-            if (isKingAttacked()) {
-                final MoveList l = MoveGenerator.getInstance().generateLegalMoves(this);
-                if (l.size() == 0) {
-                    return true;
-                }
-            }
+            result = MoveGenerator.getInstance().hasAnyLegalMove(this);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-        return false;
+        stateKeys[index] = key;
+        states[index] = result ? STATE_HAS_MOVES : STATE_NO_MOVES;
+        return result;
     }
 
     /**
      * verify draw by 50th move rule, 3 fold rep and insuficient material
      */
     public boolean isDraw() {
-        final int i = Math.min(getHistory().size() - 1, getHalfMoveCounter());
-        int rept = 0;
-        if (getHistory().size() >= 4) {
-            final int lastKey = getHistory().get(getHistory().size() - 1);
-            for (int x = 2; x <= i; x += 2) {
-                final int k = getHistory().get(getHistory().size() - x - 1);
-                if (k == lastKey) {
-                    rept++;
-                    if (rept >= 2) {
-                        return true;
-                    }
-                }
-            }
+        if (getRepetitionCount() >= 2) {
+            return true;
         }
         if (isInsufficientMaterial()) {
             return true;
@@ -1111,17 +1315,7 @@ public class Board implements Cloneable, BoardEvent {
      * @return
      */
     public boolean isStaleMate() {
-        try {
-            if (!isKingAttacked()) {
-                MoveList l = MoveGenerator.getInstance().generateLegalMoves(this);
-                if (l.size() == 0) {
-                    return true;
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        return false;
+        return !isKingAttacked() && !hasAnyLegalMove();
     }
 
     /**
@@ -1181,22 +1375,91 @@ public class Board implements Cloneable, BoardEvent {
      */
     @Override
     public int hashCode() {
-        int hash = 0;
-        for (Square sq : Square.values()) {
-            Piece piece = getPiece(sq);
-            if (!Piece.NONE.equals(piece) &&
-                    !Square.NONE.equals(sq)) {
-                hash ^= sq.hashCode() ^ piece.hashCode();
+        return (int) (zobristKey ^ (zobristKey >>> 32));
+    }
+
+    /**
+     * Get the 64-bit zobrist key of the board state. It covers the same
+     * state as {@link #getPositionId()}: pieces, side to move, castle rights
+     * and en passant square. The key is updated incrementally on every
+     * board change and is stable across runs, so it can be persisted.
+     *
+     * @return the zobrist key
+     */
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    /**
+     * @param zobristKey the zobristKey to set
+     */
+    protected void setZobristKey(long zobristKey) {
+        this.zobristKey = zobristKey;
+    }
+
+    /**
+     * Compute the zobrist key from scratch
+     *
+     * @return the zobrist key
+     */
+    private long computeZobristKey() {
+        long key = 0L;
+        for (Piece piece : Piece.values()) {
+            if (!Piece.NONE.equals(piece)) {
+                long bb = bitboard[piece.ordinal()];
+                while (bb != 0L) {
+                    key ^= zobristPiece[piece.ordinal()][Bitboard.bitScanForward(bb)];
+                    bb = Bitboard.extractLsb(bb);
+                }
             }
         }
-        hash ^= getSideToMove().hashCode();
-        hash ^= getCastleRight(Side.WHITE).hashCode();
-        hash ^= getCastleRight(Side.BLACK).hashCode();
-        if (!Square.NONE.equals(getEnPassant())) {
-            hash ^= getEnPassant().hashCode();
+        if (Side.BLACK.equals(sideToMove)) {
+            key ^= zobristSide;
+        }
+        key ^= castleKey(Side.WHITE, castleRight.get(Side.WHITE));
+        key ^= castleKey(Side.BLACK, castleRight.get(Side.BLACK));
+        key ^= enPassantKey(enPassant);
+        return key;
+    }
+
+    private static long castleKey(Side side, CastleRight right) {
+        return right == null ? 0L : zobristCastle[side.ordinal()][right.ordinal()];
+    }
+
+    private static long enPassantKey(Square sq) {
+        return sq == null || Square.NONE.equals(sq) ? 0L : zobristEnPassant[sq.ordinal()];
+    }
+
+    private class HistoryView extends AbstractList<Long> {
+
+        @Override
+        public Long get(int index) {
+            if (index < 0 || index >= historySize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + historySize);
+            }
+            return history[index];
+        }
+
+        @Override
+        public int size() {
+            return historySize;
+        }
+    }
+
+    private class BackupView extends AbstractList<MoveBackup> {
+
+        @Override
+        public MoveBackup get(int index) {
+            if (index < 0 || index >= backupSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + backupSize);
+            }
+            return backup[index];
+        }
+
+        @Override
+        public int size() {
+            return backupSize;
         }
-        //TODO use increamental zobrist's hashing
-        return hash;
     }
 
     @Override
@@ -17,6 +17,7 @@
 package com.github.bhlangonijr.chesslib;
 
 import com.github.bhlangonijr.chesslib.move.Move;
+import com.github.bhlangonijr.chesslib.move.PackedMove;
 
 import java.util.EnumMap;
 
@@ -32,12 +33,17 @@ public class MoveBackup implements BoardEvent {
     private Integer moveCounter;
     private Integer halfMoveCounter;
     private Move move;
+    private int packedMove;
+    private Square from;
+    private Square to;
+    private Piece promotion;
     private Move rookCastleMove;
     private Piece capturedPiece;
     private Square capturedSquare;
     private Piece movingPiece;
     private boolean castleMove;
     private boolean enPassantMove;
+    private long zobristKey;
 
     public MoveBackup() {
         castleRight = new EnumMap<Side, CastleRight>(Side.class);
@@ -48,6 +54,11 @@ public class MoveBackup implements BoardEvent {
         makeBackup(board, move);
     }
 
+    public MoveBackup(Board board, int move) {
+        this();
+        makeBackup(board, move);
+    }
+
     /**
      * make the board backup
      *
@@ -55,21 +66,43 @@ public class MoveBackup implements BoardEvent {
      * @param move
      */
     public void makeBackup(Board board, Move move) {
+        makeBackup(board, move.getFrom(), move.getTo(), move.getPromotion());
+        this.move = move;
+        this.packedMove = PackedMove.NONE;
+    }
+
+    /**
+     * make the board backup for a packed move
+     *
+     * @param board
+     * @param move  move packed as in {@link PackedMove}
+     */
+    public void makeBackup(Board board, int move) {
+        makeBackup(board, PackedMove.getFrom(move), PackedMove.getTo(move),
+                PackedMove.getPromotion(move, board.getSideToMove()));
+        this.move = null;
+        this.packedMove = move;
+    }
+
+    private void makeBackup(Board board, Square from, Square to, Piece promotion) {
 
         setSideToMove(board.getSideToMove());
         setEnPassantTarget(board.getEnPassantTarget());
         setEnPassant(board.getEnPassant());
         setMoveCounter(board.getMoveCounter());
         setHalfMoveCounter(board.getHalfMoveCounter());
-        setMove(new Move(move));
+        setZobristKey(board.getZobristKey());
+        this.from = from;
+        this.to = to;
+        this.promotion = promotion;
         getCastleRight().put(Side.WHITE, board.getCastleRight(Side.WHITE));
         getCastleRight().put(Side.BLACK, board.getCastleRight(Side.BLACK));
-        setCapturedPiece(board.getPiece(move.getTo()));
-        setCapturedSquare(move.getTo());
-        Piece moving = board.getPiece(move.getFrom());
+        setCapturedPiece(board.getPiece(to));
+        setCapturedSquare(to);
+        Piece moving = board.getPiece(from);
         setMovingPiece(moving);
-        if (board.getContext().isCastleMove(move)) {
-            CastleRight c = board.getContext().isKingSideCastle(move) ? CastleRight.KING_SIDE :
+        if (board.getContext().isCastleMove(from, to)) {
+            CastleRight c = board.getContext().isKingSideCastle(from, to) ? CastleRight.KING_SIDE :
                     CastleRight.QUEEN_SIDE;
             Move rookMove = board.getContext().getRookCastleMove(board.getSideToMove(), c);
             setRookCastleMove(rookMove);
@@ -81,7 +114,8 @@ public class MoveBackup implements BoardEvent {
         setEnPassantMove(false);
         if (!Square.NONE.equals(getEnPassantTarget())) {
             if (PieceType.PAWN.equals(moving.getPieceType())) {
-                if (!move.getTo().getFile().equals(move.getFrom().getFile())) {
+                if (!to.getFile().equals(from.getFile()) &&
+                        Piece.NONE.equals(board.getPiece(to))) {
                     setCapturedPiece(board.getPiece(getEnPassantTarget()));
                     setCapturedSquare(getEnPassantTarget());
                     setEnPassantMove(true);
@@ -102,31 +136,30 @@ public class MoveBackup implements BoardEvent {
         board.setEnPassant(getEnPassant());
         board.setMoveCounter(getMoveCounter());
         board.setHalfMoveCounter(getHalfMoveCounter());
-        Piece movingPiece = board.getPiece(getMove().getTo());
-        board.getCastleRight().put(Side.WHITE, getCastleRight().get(Side.WHITE));
-        board.getCastleRight().put(Side.BLACK, getCastleRight().get(Side.BLACK));
-
-        final boolean isCastle = board.getContext().isCastleMove(getMove());
+        Piece movingPiece = board.getPiece(to);
+        board.setCastleRight(Side.WHITE, getCastleRight().get(Side.WHITE));
+        board.setCastleRight(Side.BLACK, getCastleRight().get(Side.BLACK));
 
         if (PieceType.KING.equals(movingPiece.getPieceType())) {
-            if (isCastle) {
+            if (isCastleMove()) {
                 board.movePiece(getRookCastleMove().getTo(),
                         getRookCastleMove().getFrom(), Piece.NONE);
             }
         }
-        board.unsetPiece(movingPiece, getMove().getTo());
-        if (Piece.NONE.equals(getMove().getPromotion())) {
-            board.setPiece(movingPiece, getMove().getFrom());
+        board.unsetPiece(movingPiece, to);
+        if (Piece.NONE.equals(promotion)) {
+            board.setPiece(movingPiece, from);
         } else {
             if (Side.WHITE.equals(getSideToMove())) {
-                board.setPiece(Piece.WHITE_PAWN, getMove().getFrom());
+                board.setPiece(Piece.WHITE_PAWN, from);
             } else {
-                board.setPiece(Piece.BLACK_PAWN, getMove().getFrom());
+                board.setPiece(Piece.BLACK_PAWN, from);
             }
         }
         if (!Piece.NONE.equals(getCapturedPiece())) {
             board.setPiece(getCapturedPiece(), getCapturedSquare());
         }
+        board.setZobristKey(getZobristKey());
     }
 
     /**
@@ -203,6 +236,9 @@ public class MoveBackup implements BoardEvent {
      * @return the move
      */
     public Move getMove() {
+        if (move == null && from != null) {
+            move = new Move(from, to, promotion);
+        }
         return move;
     }
 
@@ -211,6 +247,20 @@ public class MoveBackup implements BoardEvent {
      */
     public void setMove(Move move) {
         this.move = move;
+        this.packedMove = PackedMove.NONE;
+        this.from = move.getFrom();
+        this.to = move.getTo();
+        this.promotion = move.getPromotion();
+    }
+
+    /**
+     * @return the move packed as in {@link PackedMove}
+     */
+    public int getPackedMove() {
+        if (packedMove == PackedMove.NONE && from != null) {
+            packedMove = PackedMove.encode(from, to, promotion);
+        }
+        return packedMove;
     }
 
     /**
@@ -262,6 +312,20 @@ public class MoveBackup implements BoardEvent {
         this.capturedSquare = capturedSquare;
     }
 
+    /**
+     * @return the zobrist key of the board before the move
+     */
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    /**
+     * @param zobristKey the zobristKey to set
+     */
+    public void setZobristKey(long zobristKey) {
+        this.zobristKey = zobristKey;
+    }
+
     public BoardEventType getType() {
         return BoardEventType.ON_UNDO_MOVE;
     }
@@ -31,6 +31,10 @@ public enum Square {
 
     private static final EnumMap<Square, Square[]> sideSquare =
             new EnumMap<Square, Square[]>(Square.class);
+    // cached copies of values(), which allocates a new array on every call
+    private static final Square allSquares[] = values();
+    private static final Rank allRanks[] = Rank.values();
+    private static final File allFiles[] = File.values();
 
     static {
         for (Square sq : Square.values()) {
@@ -60,7 +64,7 @@ public enum Square {
      * @return
      */
     public static Square encode(Rank rank, File file) {
-        return Square.values()[rank.ordinal() * 8 + file.ordinal()];
+        return allSquares[rank.ordinal() * 8 + file.ordinal()];
     }
 
     public static Square fromValue(String v) {
@@ -68,10 +72,10 @@ public enum Square {
     }
 
     public static Square squareAt(int index) {
-        if (index >= Square.values().length) {
+        if (index >= allSquares.length) {
             return Square.NONE;
         }
-        return Square.values()[index];
+        return allSquares[index];
     }
 
     public Square[] getSideSquares() {
@@ -79,11 +83,11 @@ public enum Square {
     }
 
     public Rank getRank() {
-        return Rank.values()[this.ordinal() / 8];
+        return allRanks[this.ordinal() / 8];
     }
 
     public File getFile() {
-        return File.values()[this.ordinal() % 8];
+        return allFiles[this.ordinal() % 8];
     }
 
     public String value() {
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.game;
+
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Constants;
+import com.github.bhlangonijr.chesslib.Side;
+import com.github.bhlangonijr.chesslib.move.MoveGenerator;
+import com.github.bhlangonijr.chesslib.move.MoveGeneratorException;
+import com.github.bhlangonijr.chesslib.move.MoveList;
+import com.github.bhlangonijr.chesslib.move.PackedMove;
+import com.github.bhlangonijr.chesslib.pgn.PGNLoadListener;
+import com.github.bhlangonijr.chesslib.pgn.PgnHolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an archive written by {@link GameArchiveWriter}.
+ * <p>
+ * Games are read one at a time, either as {@link Game} objects with
+ * {@link #next()}, or as a stream of packed moves with {@link #nextGame()}
+ * and {@link #nextMove()}, which replays them on a board without building
+ * any move objects. Neither way goes through SAN parsing.
+ * <pre>
+ * GameArchiveReader reader = new GameArchiveReader(in);
+ * while (reader.nextGame()) {
+ *     board.loadFromFEN(reader.getFen());
+ *     for (int i = 0; i &lt; reader.getMoveCount(); i++) {
+ *         board.doMove(reader.nextMove(), false);
+ *     }
+ * }
+ * </pre>
+ */
+public class GameArchiveReader implements Closeable {
+
+    private static final GameResult results[] = GameResult.values();
+
+    private final DataInputStream in;
+    private final int encoding;
+    private final Board board = new Board();
+    private final int moves[] = new int[MoveGenerator.MAX_MOVES];
+
+    private long games;
+    private GameResult result;
+    private int whiteElo;
+    private int blackElo;
+    private String white;
+    private String black;
+    private String date;
+    private String eco;
+    private String opening;
+    private String fen;
+    private int moveCount;
+    private int moveIndex;
+
+    public GameArchiveReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        if (this.in.readInt() != GameArchiveWriter.MAGIC) {
+            throw new IOException("Not a game archive");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version != GameArchiveWriter.VERSION) {
+            throw new IOException("Unsupported game archive version " + version);
+        }
+        this.encoding = this.in.readUnsignedByte();
+        if (encoding != GameArchiveWriter.MOVE_CODES && encoding != GameArchiveWriter.MOVE_INDEXES) {
+            throw new IOException("Unknown move encoding " + encoding);
+        }
+    }
+
+    /**
+     * Read the header of the next game, skipping the moves left in the current one
+     *
+     * @return false at the end of the archive
+     * @throws IOException
+     */
+    public boolean nextGame() throws IOException {
+        skipMoves();
+        int first = in.read();
+        if (first < 0) {
+            moveCount = 0;
+            return false;
+        }
+        readVarInt(first);
+        int r = in.readByte();
+        result = r < 0 ? null : results[r];
+        whiteElo = in.readUnsignedShort();
+        blackElo = in.readUnsignedShort();
+        white = readString();
+        black = readString();
+        date = readString();
+        eco = readString();
+        opening = readString();
+        fen = in.readUTF();
+        if (fen.length() == 0) {
+            fen = Constants.startStandardFENPosition;
+        }
+        moveCount = readVarInt(in.readUnsignedByte());
+        moveIndex = 0;
+        if (encoding == GameArchiveWriter.MOVE_INDEXES) {
+            board.loadFromFEN(fen);
+        }
+        games++;
+        return true;
+    }
+
+    /**
+     * Read the next move of the current game
+     *
+     * @return the packed move, flags are only set with index encoding
+     * @throws IOException
+     */
+    public int nextMove() throws IOException {
+        if (moveIndex >= moveCount) {
+            throw new IllegalStateException("No moves left in game " + games);
+        }
+        moveIndex++;
+        if (encoding == GameArchiveWriter.MOVE_CODES) {
+            return in.readUnsignedShort();
+        }
+        int index = in.readUnsignedByte();
+        try {
+            int count = MoveGenerator.getInstance().generateLegalMoves(board, moves);
+            if (index >= count) {
+                throw new IOException("Bad move index " + index + " on " + board.getFEN());
+            }
+            int move = moves[index];
+            board.doMove(move, false);
+            return move;
+        } catch (MoveGeneratorException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void skipMoves() throws IOException {
+        int length = (moveCount - moveIndex) * (encoding == GameArchiveWriter.MOVE_CODES ? 2 : 1);
+        moveIndex = moveCount;
+        skipFully(length);
+    }
+
+    /**
+     * Skip the next game without reading its header
+     *
+     * @return false at the end of the archive
+     * @throws IOException
+     */
+    public boolean skipGame() throws IOException {
+        skipMoves();
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        skipFully(readVarInt(first));
+        games++;
+        return true;
+    }
+
+    private void skipFully(int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Replay the moves left in the current game on a board
+     *
+     * @param board board at the position reached so far, initially {@link #getFen()}
+     * @throws IOException
+     */
+    public void replay(Board board) throws IOException {
+        while (moveIndex < moveCount) {
+            board.doMove(nextMove(), false);
+        }
+    }
+
+    /**
+     * Read the next game
+     *
+     * @return the game, or null at the end of the archive
+     * @throws IOException
+     */
+    public Game next() throws IOException {
+        if (!nextGame()) {
+            return null;
+        }
+        Game game = new Game(String.valueOf(games));
+        if (result != null) {
+            game.setResult(result);
+        }
+        game.setWhiteElo(whiteElo);
+        game.setBlackElo(blackElo);
+        game.setWhitePlayer(white);
+        game.setBlackPlayer(black);
+        game.setDate(date);
+        game.setEco(eco);
+        game.setOpening(opening);
+        boolean standardStart = Constants.startStandardFENPosition.equals(fen);
+        if (!standardStart) {
+            game.setFen(fen);
+        }
+        MoveList halfMoves = new MoveList(fen);
+        Side side = sideToMove(fen);
+        while (moveIndex < moveCount) {
+            halfMoves.add(PackedMove.toMove(nextMove(), side));
+            side = side.flip();
+        }
+        game.setHalfMoves(halfMoves);
+        game.setPlyCount(String.valueOf(moveCount));
+        return game;
+    }
+
+    private static Side sideToMove(String fen) {
+        int space = fen.indexOf(' ');
+        return space >= 0 && fen.length() > space + 1 && fen.charAt(space + 1) == 'b' ? Side.BLACK : Side.WHITE;
+    }
+
+    private String readString() throws IOException {
+        String s = in.readUTF();
+        return s.length() == 0 ? null : s;
+    }
+
+    private int readVarInt(int b) throws IOException {
+        int value = b & 0x7F;
+        int shift = 7;
+        while ((b & 0x80) != 0) {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    /**
+     * @return number of games read so far
+     */
+    public long getGames() {
+        return games;
+    }
+
+    public int getEncoding() {
+        return encoding;
+    }
+
+    public GameResult getResult() {
+        return result;
+    }
+
+    public int getWhiteElo() {
+        return whiteElo;
+    }
+
+    public int getBlackElo() {
+        return blackElo;
+    }
+
+    public String getWhitePlayer() {
+        return white;
+    }
+
+    public String getBlackPlayer() {
+        return black;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public String getEco() {
+        return eco;
+    }
+
+    public String getOpening() {
+        return opening;
+    }
+
+    /**
+     * @return the starting position of the current game
+     */
+    public String getFen() {
+        return fen;
+    }
+
+    /**
+     * @return number of half moves of the current game
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Convert a PGN file into an archive and print the size of both
+     * <pre>
+     * java com.github.bhlangonijr.chesslib.game.GameArchiveReader file.pgn file.cga [codes]
+     * </pre>
+     */
+    public static void main(String args[]) throws Exception {
+        int encoding = args.length > 2 && "codes".equals(args[2]) ?
+                GameArchiveWriter.MOVE_CODES : GameArchiveWriter.MOVE_INDEXES;
+        final GameArchiveWriter writer = new GameArchiveWriter(
+                new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16), encoding);
+        try {
+            PgnHolder pgn = new PgnHolder(args[0]);
+            pgn.setLazyLoad(true);
+            pgn.getListener().add(new PGNLoadListener() {
+                @Override
+                public void notifyProgress(Game game) throws Exception {
+                    writer.write(game);
+                }
+            });
+            pgn.loadPgn();
+        } finally {
+            writer.close();
+        }
+        long pgnSize = new File(args[0]).length();
+        long archiveSize = new File(args[1]).length();
+        System.out.println(String.format("games %d pgn %d bytes archive %d bytes ratio %.1f",
+                writer.getGames(), pgnSize, archiveSize, (double) pgnSize / Math.max(1L, archiveSize)));
+
+        long start = System.nanoTime();
+        long plies = 0L;
+        GameArchiveReader reader = new GameArchiveReader(
+                new BufferedInputStream(new FileInputStream(args[1]), 1 << 16));
+        try {
+            Board board = new Board();
+            while (reader.nextGame()) {
+                board.loadFromFEN(reader.getFen());
+                plies += reader.getMoveCount();
+                reader.replay(board);
+            }
+        } finally {
+            reader.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("replayed %d games %d plies in %d ms",
+                reader.getGames(), plies, elapsed / 1000000L));
+    }
+}
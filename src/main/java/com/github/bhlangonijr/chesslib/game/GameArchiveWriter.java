@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.game;
+
+import com.github.bhlangonijr.chesslib.Board;
+import com.github.bhlangonijr.chesslib.Constants;
+import com.github.bhlangonijr.chesslib.move.Move;
+import com.github.bhlangonijr.chesslib.move.MoveGenerator;
+import com.github.bhlangonijr.chesslib.move.MoveGeneratorException;
+import com.github.bhlangonijr.chesslib.move.MoveList;
+import com.github.bhlangonijr.chesslib.move.PackedMove;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes games into a compact binary archive, read back by {@link GameArchiveReader}.
+ * <p>
+ * Only the main line and the main header fields are kept. The layout is
+ * <pre>
+ * archive  magic (4), version (1), move encoding (1), then the games
+ * game     record length (varint), result (1), white and black Elo (2 + 2),
+ *          white, black, date, ECO, opening and starting FEN as
+ *          modified UTF-8 strings (2 + length, empty when missing),
+ *          move count (varint), moves
+ * </pre>
+ * Moves are encoded either as the 16 bit from/to/promotion code of
+ * {@link PackedMove#compact(int)}, or as their index in the list of legal
+ * moves of the position, one byte each. Indexes are half the size but
+ * depend on the move generation order, which is fixed by the archive
+ * version.
+ */
+public class GameArchiveWriter implements Closeable {
+
+    static final int MAGIC = 0x43474131; // CGA1
+    static final int VERSION = 1;
+
+    /**
+     * Moves as 16 bit from/to/promotion codes
+     */
+    public static final int MOVE_CODES = 0;
+    /**
+     * Moves as one byte indexes into the legal move list
+     */
+    public static final int MOVE_INDEXES = 1;
+
+    private final DataOutputStream out;
+    private final int encoding;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final Board board = new Board();
+    private final int moves[] = new int[MoveGenerator.MAX_MOVES];
+    private long games;
+
+    public GameArchiveWriter(OutputStream out) throws IOException {
+        this(out, MOVE_INDEXES);
+    }
+
+    /**
+     * @param out
+     * @param encoding {@link #MOVE_CODES} or {@link #MOVE_INDEXES}
+     * @throws IOException
+     */
+    public GameArchiveWriter(OutputStream out, int encoding) throws IOException {
+        if (encoding != MOVE_CODES && encoding != MOVE_INDEXES) {
+            throw new IllegalArgumentException("Unknown move encoding " + encoding);
+        }
+        this.out = new DataOutputStream(out);
+        this.encoding = encoding;
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeByte(encoding);
+    }
+
+    /**
+     * Append a game, its movetext is loaded if it wasn't yet
+     *
+     * @param game
+     * @throws Exception if the movetext can't be loaded or has illegal moves
+     */
+    public void write(Game game) throws Exception {
+        game.loadMoveText();
+        write(game, game.getHalfMoves());
+    }
+
+    /**
+     * Append the header of a game with the given moves
+     *
+     * @param game
+     * @param halfMoves
+     * @throws IOException
+     * @throws MoveGeneratorException if a move is not legal
+     */
+    public void write(Game game, MoveList halfMoves) throws IOException, MoveGeneratorException {
+        String fen = game.getFen();
+        if (fen == null || fen.trim().length() == 0) {
+            fen = halfMoves.getStartFEN();
+        }
+        boolean standardStart = Constants.startStandardFENPosition.equals(fen);
+
+        record.reset();
+        recordOut.writeByte(game.getResult() == null ? -1 : game.getResult().ordinal());
+        recordOut.writeShort(elo(game.getWhiteElo()));
+        recordOut.writeShort(elo(game.getBlackElo()));
+        writeString(game.getWhitePlayer());
+        writeString(game.getBlackPlayer());
+        writeString(game.getDate());
+        writeString(game.getEco());
+        writeString(game.getOpening());
+        writeString(standardStart ? null : fen);
+        writeVarInt(recordOut, halfMoves.size());
+        if (encoding == MOVE_INDEXES) {
+            board.loadFromFEN(fen);
+        }
+        for (Move move : halfMoves) {
+            int code = PackedMove.encode(move);
+            if (encoding == MOVE_CODES) {
+                recordOut.writeShort(code);
+            } else {
+                recordOut.writeByte(indexOf(code, move));
+                board.doMove(code, false);
+            }
+        }
+        writeVarInt(out, record.size());
+        record.writeTo(out);
+        games++;
+    }
+
+    private int indexOf(int code, Move move) throws MoveGeneratorException {
+        int count = MoveGenerator.getInstance().generateLegalMoves(board, moves);
+        for (int i = 0; i < count; i++) {
+            if (PackedMove.compact(moves[i]) == code) {
+                return i;
+            }
+        }
+        throw new MoveGeneratorException("Illegal move " + move + " on " + board.getFEN());
+    }
+
+    private static int elo(int elo) {
+        return Math.max(0, Math.min(elo, Short.MAX_VALUE));
+    }
+
+    private void writeString(String s) throws IOException {
+        recordOut.writeUTF(s == null ? "" : s);
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * @return number of games written
+     */
+    public long getGames() {
+        return games;
+    }
+
+    public int getEncoding() {
+        return encoding;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
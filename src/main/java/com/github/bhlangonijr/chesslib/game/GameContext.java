@@ -72,9 +72,12 @@ public class GameContext {
         setBlackoooSquares(Constants.DEFAULT_BLACK_OOO_SQUARES);
 
         setWhiteooSquaresBb(squareListToBb(Constants.DEFAULT_WHITE_OO_SQUARES));
-        setWhiteoooSquaresBb(squareListToBb(Constants.DEFAULT_WHITE_OOO_SQUARES));
+        // the knight square must be empty for queen side castle, though it may be attacked
+        setWhiteoooSquaresBb(squareListToBb(Constants.DEFAULT_WHITE_OOO_SQUARES) |
+                Square.B1.getBitboard());
         setBlackooSquaresBb(squareListToBb(Constants.DEFAULT_BLACK_OO_SQUARES));
-        setBlackoooSquaresBb(squareListToBb(Constants.DEFAULT_BLACK_OOO_SQUARES));
+        setBlackoooSquaresBb(squareListToBb(Constants.DEFAULT_BLACK_OOO_SQUARES) |
+                Square.B8.getBitboard());
 
         setStartFEN(Constants.startStandardFENPosition);
     }
@@ -142,10 +145,17 @@ public class GameContext {
      * @return true if move is a castle one
      */
     public boolean isCastleMove(final Move move) {
-        return move.equals(getWhiteoo()) ||
-                move.equals(getWhiteooo()) ||
-                move.equals(getBlackoo()) ||
-                move.equals(getBlackooo());
+        return isCastleMove(move.getFrom(), move.getTo());
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return true if the move between the given squares is a castle one
+     */
+    public boolean isCastleMove(Square from, Square to) {
+        return isKingSideCastle(from, to) ||
+                isQueenSideCastle(from, to);
     }
 
     /**
@@ -155,14 +165,24 @@ public class GameContext {
      * @return
      */
     public boolean hasCastleRight(final Move move, final CastleRight castleRight) {
+        return hasCastleRight(move.getFrom(), move.getTo(), castleRight);
+    }
+
+    /**
+     * If castle move between the given squares is a valid one
+     *
+     * @param from
+     * @param to
+     * @param castleRight
+     * @return
+     */
+    public boolean hasCastleRight(Square from, Square to, final CastleRight castleRight) {
 
         final CastleRight r = castleRight;
 
         return (CastleRight.KING_AND_QUEEN_SIDE.equals(r)) ||
-                (move.equals(getWhiteoo()) && CastleRight.KING_SIDE.equals(r)) ||
-                (move.equals(getBlackoo()) && CastleRight.KING_SIDE.equals(r)) ||
-                (move.equals(getWhiteooo()) && CastleRight.QUEEN_SIDE.equals(r)) ||
-                (move.equals(getBlackooo()) && CastleRight.QUEEN_SIDE.equals(r));
+                (isKingSideCastle(from, to) && CastleRight.KING_SIDE.equals(r)) ||
+                (isQueenSideCastle(from, to) && CastleRight.QUEEN_SIDE.equals(r));
     }
 
     /**
@@ -172,8 +192,19 @@ public class GameContext {
      * @return
      */
     public boolean isKingSideCastle(Move move) {
-        return move.equals(getWhiteoo()) ||
-                move.equals(getBlackoo());
+        return isKingSideCastle(move.getFrom(), move.getTo());
+    }
+
+    /**
+     * is King side castle
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean isKingSideCastle(Square from, Square to) {
+        return (from == getWhiteoo().getFrom() && to == getWhiteoo().getTo()) ||
+                (from == getBlackoo().getFrom() && to == getBlackoo().getTo());
     }
 
     /**
@@ -183,8 +214,19 @@ public class GameContext {
      * @return
      */
     public boolean isQueenSideCastle(Move move) {
-        return move.equals(getWhiteooo()) ||
-                move.equals(getBlackooo());
+        return isQueenSideCastle(move.getFrom(), move.getTo());
+    }
+
+    /**
+     * is queen side castle
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean isQueenSideCastle(Square from, Square to) {
+        return (from == getWhiteooo().getFrom() && to == getWhiteooo().getTo()) ||
+                (from == getBlackooo().getFrom() && to == getBlackooo().getTo());
     }
 
     public Move getWhiteoo() {
@@ -17,10 +17,18 @@
 package com.github.bhlangonijr.chesslib.move;
 
 import com.github.bhlangonijr.chesslib.*;
+import com.github.bhlangonijr.chesslib.game.GameContext;
 
 import java.util.List;
 
 public class MoveGenerator {
+
+    /**
+     * Upper bound for the number of moves in any position, used to size
+     * the buffers given to the int[] generators
+     */
+    public static final int MAX_MOVES = 256;
+
     static final MoveGenerator instance = new MoveGenerator();
 
     private MoveGenerator() {
@@ -274,18 +282,439 @@ public class MoveGenerator {
      */
     public MoveList generateLegalMoves(Board board) throws MoveGeneratorException {
         MoveList legalMoves = new MoveList();
-        try {
-            MoveList moves = generatePseudoLegalMoves(board);
-            for (Move move : moves) {
-                if (board.isMoveLegal(move, false)) {
-                    legalMoves.add(move);
+        int moves[] = new int[MAX_MOVES];
+        int count = generateLegalMoves(board, moves);
+        Side side = board.getSideToMove();
+        for (int i = 0; i < count; i++) {
+            legalMoves.add(PackedMove.toMove(moves[i], side));
+        }
+        return legalMoves;
+    }
+
+    /**
+     * Generate all pseudo-legal moves packed as in {@link PackedMove}, in the
+     * same order as {@link #generatePseudoLegalMoves(Board)}, without allocating
+     *
+     * @param board
+     * @param moves buffer of at least {@link #MAX_MOVES} entries
+     * @return the number of moves written to the buffer
+     */
+    public int generatePseudoLegalMoves(Board board, int moves[]) {
+        final Side side = board.getSideToMove();
+        final long occ = board.getBitboard();
+        final long own = board.getBitboard(side);
+        final long other = occ & ~own;
+        final Square ep = board.getEnPassantTarget();
+        final long promoRank = Side.WHITE.equals(side) ?
+                Bitboard.getRankbb(Rank.RANK_8) : Bitboard.getRankbb(Rank.RANK_1);
+        int count = 0;
+
+        long pieces = board.getBitboard(Piece.make(side, PieceType.PAWN));
+        for (long p = pieces; p != 0L; p = Bitboard.extractLsb(p)) {
+            int from = Bitboard.bitScanForward(p);
+            long targets = Bitboard.getPawnCaptures(side, Square.squareAt(from), occ, ep) & ~own;
+            for (; targets != 0L; targets = Bitboard.extractLsb(targets)) {
+                int to = Bitboard.bitScanForward(targets);
+                long toBb = 1L << to;
+                int flags = (other & toBb) != 0L ? PackedMove.CAPTURE :
+                        PackedMove.CAPTURE | PackedMove.EN_PASSANT;
+                count = addPawnMove(moves, count, from, to, flags, (toBb & promoRank) != 0L);
+            }
+        }
+        for (long p = pieces; p != 0L; p = Bitboard.extractLsb(p)) {
+            int from = Bitboard.bitScanForward(p);
+            long targets = Bitboard.getPawnMoves(side, Square.squareAt(from), occ);
+            for (; targets != 0L; targets = Bitboard.extractLsb(targets)) {
+                int to = Bitboard.bitScanForward(targets);
+                int flags = Math.abs(to - from) == 16 ? PackedMove.DOUBLE_PUSH : 0;
+                count = addPawnMove(moves, count, from, to, flags, ((1L << to) & promoRank) != 0L);
+            }
+        }
+
+        pieces = board.getBitboard(Piece.make(side, PieceType.KNIGHT));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            count = addMoves(moves, count, from,
+                    Bitboard.getKnightAttacks(Square.squareAt(from), ~own), other);
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.BISHOP));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            count = addMoves(moves, count, from,
+                    Bitboard.getBishopAttacks(occ, Square.squareAt(from)) & ~own, other);
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.ROOK));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            count = addMoves(moves, count, from,
+                    Bitboard.getRookAttacks(occ, Square.squareAt(from)) & ~own, other);
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.QUEEN));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            count = addMoves(moves, count, from,
+                    Bitboard.getQueenAttacks(occ, Square.squareAt(from)) & ~own, other);
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.KING));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            count = addMoves(moves, count, from,
+                    Bitboard.getKingAttacks(Square.squareAt(from), ~own), other);
+        }
+
+        if (!board.isKingAttacked()) {
+            CastleRight castleRight = board.getCastleRight(side);
+            GameContext context = board.getContext();
+            if (CastleRight.KING_AND_QUEEN_SIDE.equals(castleRight) ||
+                    CastleRight.KING_SIDE.equals(castleRight)) {
+                if ((occ & context.getooSquaresBb(side)) == 0L) {
+                    if (!board.isSquareAttackedBy(context.getooSquares(side), side.flip())) {
+                        moves[count++] = PackedMove.encode(context.getoo(side)) | PackedMove.CASTLE;
+                    }
+                }
+            }
+            if (CastleRight.KING_AND_QUEEN_SIDE.equals(castleRight) ||
+                    CastleRight.QUEEN_SIDE.equals(castleRight)) {
+                if ((occ & context.getoooSquaresBb(side)) == 0L) {
+                    if (!board.isSquareAttackedBy(context.getoooSquares(side), side.flip())) {
+                        moves[count++] = PackedMove.encode(context.getooo(side)) | PackedMove.CASTLE;
+                    }
                 }
             }
+        }
+        return count;
+    }
+
+    /**
+     * Generate legal moves packed as in {@link PackedMove}, without allocating.
+     * <p>
+     * Checkers and pinned pieces are computed once for the position and the
+     * targets of each piece are masked with them, so moves don't need to be
+     * tested for king safety one by one. Only king moves and en passant
+     * captures are tested against the resulting occupancy.
+     *
+     * @param board
+     * @param moves buffer of at least {@link #MAX_MOVES} entries
+     * @return the number of moves written to the buffer
+     */
+    public int generateLegalMoves(Board board, int moves[]) throws MoveGeneratorException {
+        try {
+            return generateLegal(board, moves);
         } catch (Exception e) {
             throw new MoveGeneratorException("Couldn't generate Legal moves: ", e);
         }
+    }
 
-        return legalMoves;
+    private int generateLegal(Board board, int moves[]) {
+        final Side side = board.getSideToMove();
+        final Side other = side.flip();
+        final long kingBb = board.getBitboard(Piece.make(side, PieceType.KING));
+        if (kingBb == 0L) {
+            // no king to protect
+            return generatePseudoLegalMoves(board, moves);
+        }
+        final Square king = Square.squareAt(Bitboard.bitScanForward(kingBb));
+        final long occ = board.getBitboard();
+        final long own = board.getBitboard(side);
+        final long enemy = board.getBitboard(other);
+        final long promoRank = Side.WHITE.equals(side) ?
+                Bitboard.getRankbb(Rank.RANK_8) : Bitboard.getRankbb(Rank.RANK_1);
+        final Square ep = board.getEnPassantTarget();
+
+        final long checkers = attackers(board, king, other, occ);
+        int count = 0;
+
+        // squares a piece may move to: anywhere, or capturing/blocking the single checker
+        long checkMask = ~0L;
+        if (checkers != 0L) {
+            if (Bitboard.extractLsb(checkers) != 0L) {
+                // double check, only the king can move
+                return addKingMoves(board, moves, 0, king, side, other, occ, own, enemy);
+            }
+            checkMask = checkers | Bitboard.getSquaresBetween(king,
+                    Square.squareAt(Bitboard.bitScanForward(checkers)));
+        }
+
+        final long pinned = pinnedPieces(board, king, other, occ, own);
+
+        long pieces = board.getBitboard(Piece.make(side, PieceType.PAWN));
+        for (long p = pieces; p != 0L; p = Bitboard.extractLsb(p)) {
+            int from = Bitboard.bitScanForward(p);
+            long fromBb = 1L << from;
+            Square sqFrom = Square.squareAt(from);
+            long targets = Bitboard.getPawnCaptures(side, sqFrom, occ, ep) & ~own;
+            long mask = (pinned & fromBb) != 0L ? Bitboard.getSquaresOnLine(king, sqFrom) : ~0L;
+            for (; targets != 0L; targets = Bitboard.extractLsb(targets)) {
+                int to = Bitboard.bitScanForward(targets);
+                long toBb = 1L << to;
+                if ((enemy & toBb) != 0L) {
+                    if ((toBb & checkMask & mask) != 0L) {
+                        count = addPawnMove(moves, count, from, to, PackedMove.CAPTURE,
+                                (toBb & promoRank) != 0L);
+                    }
+                } else if (isLegalEnPassant(board, king, from, to, ep, occ, other)) {
+                    count = addPawnMove(moves, count, from, to,
+                            PackedMove.CAPTURE | PackedMove.EN_PASSANT, false);
+                }
+            }
+        }
+        for (long p = pieces; p != 0L; p = Bitboard.extractLsb(p)) {
+            int from = Bitboard.bitScanForward(p);
+            long mask = pinMask(king, from, pinned, checkMask);
+            long targets = Bitboard.getPawnMoves(side, Square.squareAt(from), occ) & mask;
+            for (; targets != 0L; targets = Bitboard.extractLsb(targets)) {
+                int to = Bitboard.bitScanForward(targets);
+                int flags = Math.abs(to - from) == 16 ? PackedMove.DOUBLE_PUSH : 0;
+                count = addPawnMove(moves, count, from, to, flags, ((1L << to) & promoRank) != 0L);
+            }
+        }
+
+        // a pinned knight can never move
+        pieces = board.getBitboard(Piece.make(side, PieceType.KNIGHT)) & ~pinned;
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            count = addMoves(moves, count, from,
+                    Bitboard.getKnightAttacks(Square.squareAt(from), ~own) & checkMask, enemy);
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.BISHOP));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            long mask = pinMask(king, from, pinned, checkMask);
+            count = addMoves(moves, count, from,
+                    Bitboard.getBishopAttacks(occ, Square.squareAt(from)) & ~own & mask, enemy);
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.ROOK));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            long mask = pinMask(king, from, pinned, checkMask);
+            count = addMoves(moves, count, from,
+                    Bitboard.getRookAttacks(occ, Square.squareAt(from)) & ~own & mask, enemy);
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.QUEEN));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            long mask = pinMask(king, from, pinned, checkMask);
+            count = addMoves(moves, count, from,
+                    Bitboard.getQueenAttacks(occ, Square.squareAt(from)) & ~own & mask, enemy);
+        }
+
+        count = addKingMoves(board, moves, count, king, side, other, occ, own, enemy);
+
+        if (checkers == 0L) {
+            CastleRight castleRight = board.getCastleRight(side);
+            GameContext context = board.getContext();
+            if (CastleRight.KING_AND_QUEEN_SIDE.equals(castleRight) ||
+                    CastleRight.KING_SIDE.equals(castleRight)) {
+                if ((occ & context.getooSquaresBb(side)) == 0L) {
+                    if (!board.isSquareAttackedBy(context.getooSquares(side), other)) {
+                        moves[count++] = PackedMove.encode(context.getoo(side)) | PackedMove.CASTLE;
+                    }
+                }
+            }
+            if (CastleRight.KING_AND_QUEEN_SIDE.equals(castleRight) ||
+                    CastleRight.QUEEN_SIDE.equals(castleRight)) {
+                if ((occ & context.getoooSquaresBb(side)) == 0L) {
+                    if (!board.isSquareAttackedBy(context.getoooSquares(side), other)) {
+                        moves[count++] = PackedMove.encode(context.getooo(side)) | PackedMove.CASTLE;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tell whether the side to move has any legal move, stopping at the first
+     * one found. King moves are tried first, then the other pieces by their
+     * masked targets, so in most positions only a few attack lookups are needed.
+     *
+     * @param board
+     * @return true if there is at least one legal move
+     */
+    public boolean hasAnyLegalMove(Board board) throws MoveGeneratorException {
+        try {
+            return hasLegal(board);
+        } catch (Exception e) {
+            throw new MoveGeneratorException("Couldn't verify legal moves: ", e);
+        }
+    }
+
+    private boolean hasLegal(Board board) {
+        final Side side = board.getSideToMove();
+        final Side other = side.flip();
+        final long kingBb = board.getBitboard(Piece.make(side, PieceType.KING));
+        if (kingBb == 0L) {
+            return generatePseudoLegalMoves(board, new int[MAX_MOVES]) > 0;
+        }
+        final Square king = Square.squareAt(Bitboard.bitScanForward(kingBb));
+        final long occ = board.getBitboard();
+        final long own = board.getBitboard(side);
+        final long enemy = board.getBitboard(other);
+
+        final long occWithoutKing = occ ^ kingBb;
+        long targets = Bitboard.getKingAttacks(king, ~own);
+        for (; targets != 0L; targets = Bitboard.extractLsb(targets)) {
+            if (attackers(board, Square.squareAt(Bitboard.bitScanForward(targets)),
+                    other, occWithoutKing) == 0L) {
+                return true;
+            }
+        }
+
+        final long checkers = attackers(board, king, other, occ);
+        long checkMask = ~0L;
+        if (checkers != 0L) {
+            if (Bitboard.extractLsb(checkers) != 0L) {
+                return false;
+            }
+            checkMask = checkers | Bitboard.getSquaresBetween(king,
+                    Square.squareAt(Bitboard.bitScanForward(checkers)));
+        }
+        final long pinned = pinnedPieces(board, king, other, occ, own);
+
+        long pieces = board.getBitboard(Piece.make(side, PieceType.KNIGHT)) & ~pinned;
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            Square from = Square.squareAt(Bitboard.bitScanForward(pieces));
+            if ((Bitboard.getKnightAttacks(from, ~own) & checkMask) != 0L) {
+                return true;
+            }
+        }
+
+        final Square ep = board.getEnPassantTarget();
+        pieces = board.getBitboard(Piece.make(side, PieceType.PAWN));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            Square sqFrom = Square.squareAt(from);
+            long mask = pinMask(king, from, pinned, checkMask);
+            if (((Bitboard.getPawnMoves(side, sqFrom, occ) |
+                    (Bitboard.getPawnCaptures(side, sqFrom, occ, Square.NONE) & enemy)) & mask) != 0L) {
+                return true;
+            }
+            if (!Square.NONE.equals(ep)) {
+                long epTargets = Bitboard.getPawnCaptures(side, sqFrom, occ, ep) & ~occ;
+                if (epTargets != 0L && isLegalEnPassant(board, king, from,
+                        Bitboard.bitScanForward(epTargets), ep, occ, other)) {
+                    return true;
+                }
+            }
+        }
+
+        pieces = board.getBitboard(Piece.make(side, PieceType.BISHOP)) |
+                board.getBitboard(Piece.make(side, PieceType.QUEEN));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            if ((Bitboard.getBishopAttacks(occ, Square.squareAt(from)) & ~own &
+                    pinMask(king, from, pinned, checkMask)) != 0L) {
+                return true;
+            }
+        }
+        pieces = board.getBitboard(Piece.make(side, PieceType.ROOK)) |
+                board.getBitboard(Piece.make(side, PieceType.QUEEN));
+        for (; pieces != 0L; pieces = Bitboard.extractLsb(pieces)) {
+            int from = Bitboard.bitScanForward(pieces);
+            if ((Bitboard.getRookAttacks(occ, Square.squareAt(from)) & ~own &
+                    pinMask(king, from, pinned, checkMask)) != 0L) {
+                return true;
+            }
+        }
+        // castling is never the only legal move, the king could step aside instead
+        return false;
+    }
+
+    /*
+     * Pieces of the side to move pinned to their king by an enemy slider
+     */
+    private static long pinnedPieces(Board board, Square king, Side other, long occ, long own) {
+        final long enemy = board.getBitboard(other);
+        final long bishopsAndQueens = board.getBitboard(Piece.make(other, PieceType.BISHOP)) |
+                board.getBitboard(Piece.make(other, PieceType.QUEEN));
+        final long rooksAndQueens = board.getBitboard(Piece.make(other, PieceType.ROOK)) |
+                board.getBitboard(Piece.make(other, PieceType.QUEEN));
+        long pinned = 0L;
+        long snipers = (Bitboard.getBishopAttacks(enemy, king) & bishopsAndQueens) |
+                (Bitboard.getRookAttacks(enemy, king) & rooksAndQueens);
+        for (; snipers != 0L; snipers = Bitboard.extractLsb(snipers)) {
+            int sniper = Bitboard.bitScanForward(snipers);
+            long blockers = Bitboard.getSquaresBetween(king, Square.squareAt(sniper)) & occ;
+            if (blockers != 0L && Bitboard.extractLsb(blockers) == 0L && (blockers & own) != 0L) {
+                pinned |= blockers;
+            }
+        }
+        return pinned;
+    }
+
+    private static long pinMask(Square king, int from, long pinned, long checkMask) {
+        return (pinned & (1L << from)) != 0L ?
+                checkMask & Bitboard.getSquaresOnLine(king, Square.squareAt(from)) : checkMask;
+    }
+
+    /*
+     * King steps to squares not attacked once the king has left its square,
+     * so it can't step back along the ray of a slider giving check
+     */
+    private static int addKingMoves(Board board, int moves[], int count, Square king,
+                                    Side side, Side other, long occ, long own, long enemy) {
+        final int from = king.ordinal();
+        final long occWithoutKing = occ ^ (1L << from);
+        long targets = Bitboard.getKingAttacks(king, ~own);
+        for (; targets != 0L; targets = Bitboard.extractLsb(targets)) {
+            int to = Bitboard.bitScanForward(targets);
+            if (attackers(board, Square.squareAt(to), other, occWithoutKing) == 0L) {
+                moves[count++] = PackedMove.encode(from, to, 0,
+                        (enemy & (1L << to)) != 0L ? PackedMove.CAPTURE : 0);
+            }
+        }
+        return count;
+    }
+
+    /*
+     * En passant removes two pawns from the king's rank at once, so it is
+     * tested against the occupancy after the capture
+     */
+    private static boolean isLegalEnPassant(Board board, Square king, int from, int to,
+                                            Square ep, long occ, Side other) {
+        final long captured = ep.getBitboard();
+        final long after = (occ ^ (1L << from) ^ captured) | (1L << to);
+        return (attackers(board, king, other, after) & ~captured) == 0L;
+    }
+
+    /*
+     * Pieces of the given side attacking the square with the given occupancy
+     */
+    private static long attackers(Board board, Square square, Side side, long occ) {
+        return (Bitboard.getPawnAttacks(side.flip(), square) &
+                board.getBitboard(Piece.make(side, PieceType.PAWN))) |
+                (Bitboard.getKnightAttacks(square, ~0L) &
+                        board.getBitboard(Piece.make(side, PieceType.KNIGHT))) |
+                (Bitboard.getBishopAttacks(occ, square) &
+                        (board.getBitboard(Piece.make(side, PieceType.BISHOP)) |
+                                board.getBitboard(Piece.make(side, PieceType.QUEEN)))) |
+                (Bitboard.getRookAttacks(occ, square) &
+                        (board.getBitboard(Piece.make(side, PieceType.ROOK)) |
+                                board.getBitboard(Piece.make(side, PieceType.QUEEN)))) |
+                (Bitboard.getKingAttacks(square, ~0L) &
+                        board.getBitboard(Piece.make(side, PieceType.KING)));
+    }
+
+    private static int addPawnMove(int moves[], int count, int from, int to,
+                                   int flags, boolean promotion) {
+        if (promotion) {
+            moves[count++] = PackedMove.encode(from, to, PieceType.QUEEN.ordinal(), flags);
+            moves[count++] = PackedMove.encode(from, to, PieceType.ROOK.ordinal(), flags);
+            moves[count++] = PackedMove.encode(from, to, PieceType.BISHOP.ordinal(), flags);
+            moves[count++] = PackedMove.encode(from, to, PieceType.KNIGHT.ordinal(), flags);
+        } else {
+            moves[count++] = PackedMove.encode(from, to, 0, flags);
+        }
+        return count;
+    }
+
+    private static int addMoves(int moves[], int count, int from, long targets, long captures) {
+        for (; targets != 0L; targets = Bitboard.extractLsb(targets)) {
+            int to = Bitboard.bitScanForward(targets);
+            moves[count++] = PackedMove.encode(from, to, 0,
+                    (captures & (1L << to)) != 0L ? PackedMove.CAPTURE : 0);
+        }
+        return count;
     }
 
 }
@@ -31,54 +31,6 @@ public class MoveList extends ArrayList<Move> implements List<Move> {
         }
     };
 
-    private static EnumMap<Piece, String> sanNotation =
-            new EnumMap<Piece, String>(Piece.class);
-
-    private static EnumMap<Piece, String> fanNotation =
-            new EnumMap<Piece, String>(Piece.class);
-
-    private static Map<String, PieceType> sanNotationR =
-            new HashMap<String, PieceType>(7);
-
-
-    static {
-        sanNotation.put(Piece.WHITE_PAWN, "");
-        sanNotation.put(Piece.BLACK_PAWN, "");
-        sanNotation.put(Piece.WHITE_KNIGHT, "N");
-        sanNotation.put(Piece.BLACK_KNIGHT, "N");
-        sanNotation.put(Piece.WHITE_BISHOP, "B");
-        sanNotation.put(Piece.BLACK_BISHOP, "B");
-        sanNotation.put(Piece.WHITE_ROOK, "R");
-        sanNotation.put(Piece.BLACK_ROOK, "R");
-        sanNotation.put(Piece.WHITE_QUEEN, "Q");
-        sanNotation.put(Piece.BLACK_QUEEN, "Q");
-        sanNotation.put(Piece.WHITE_KING, "K");
-        sanNotation.put(Piece.BLACK_KING, "K");
-        sanNotation.put(Piece.NONE, "NONE");
-
-        fanNotation.put(Piece.WHITE_PAWN, "♙");
-        fanNotation.put(Piece.BLACK_PAWN, "♟");
-        fanNotation.put(Piece.WHITE_KNIGHT, "♘");
-        fanNotation.put(Piece.BLACK_KNIGHT, "♞");
-        fanNotation.put(Piece.WHITE_BISHOP, "♗");
-        fanNotation.put(Piece.BLACK_BISHOP, "♝");
-        fanNotation.put(Piece.WHITE_ROOK, "♖");
-        fanNotation.put(Piece.BLACK_ROOK, "♜");
-        fanNotation.put(Piece.WHITE_QUEEN, "♕");
-        fanNotation.put(Piece.BLACK_QUEEN, "♛");
-        fanNotation.put(Piece.WHITE_KING, "♔");
-        fanNotation.put(Piece.BLACK_KING, "♚");
-        fanNotation.put(Piece.NONE, "NONE");
-
-        sanNotationR.put("", PieceType.PAWN);
-        sanNotationR.put("N", PieceType.KNIGHT);
-        sanNotationR.put("B", PieceType.BISHOP);
-        sanNotationR.put("R", PieceType.ROOK);
-        sanNotationR.put("Q", PieceType.QUEEN);
-        sanNotationR.put("K", PieceType.KING);
-        sanNotationR.put("NONE", PieceType.NONE);
-    }
-
     private final String startFEN;
     private boolean dirty = true;
 
@@ -116,98 +68,12 @@ public class MoveList extends ArrayList<Move> implements List<Move> {
 
     // encode the move to SAN move and update thread local board
     protected static String encodeToSAN(final Board board, Move move) throws MoveConversionException {
-        return encode(board, move, sanNotation);
+        return SanWriter.toSan(board, move);
     }
 
-    // encode the move to SAN move and update thread local board
+    // encode the move to FAN move and update thread local board
     protected static String encodeToFAN(final Board board, Move move) throws MoveConversionException {
-        return encode(board, move, fanNotation);
-    }
-
-    // encode the move to SAN/FAN move and update thread local board
-    protected static String encode(final Board board, Move move, EnumMap<Piece, String> notation)
-            throws MoveConversionException {
-        StringBuilder san = new StringBuilder();
-
-        Piece piece = board.getPiece(move.getFrom());
-        if (piece.getPieceType().equals(PieceType.KING)) {
-            int delta = move.getTo().getFile().ordinal() -
-                    move.getFrom().getFile().ordinal();
-            if (Math.abs(delta) >= 2) { // is castle
-                if (!board.doMove(move, true)) {
-                    throw new MoveConversionException("Invalid move [" +
-                            move.toString() + "] for current setup: " + board.getFEN());
-                }
-                if (delta > 0) {
-                    return "O-O";
-                } else {
-                    return "O-O-O";
-                }
-            }
-        }
-        boolean pawnMove = piece.getPieceType().equals(PieceType.PAWN) &&
-                move.getFrom().getFile().equals(move.getTo().getFile());
-        boolean ambResolved = false;
-        san.append(notation.get(piece));
-        if (!pawnMove) {
-            //resolving ambiguous move
-            long amb = board.squareAttackedByPieceType(move.getTo(),
-                    board.getSideToMove(), piece.getPieceType());
-            amb &= ~move.getFrom().getBitboard();
-            if (amb != 0L) {
-                if ((Bitboard.getFilebb(move.getFrom()) & amb) == 0L) {
-                    san.append(move.getFrom().getFile().getNotation().toLowerCase());
-                } else if ((Bitboard.getRankbb(move.getFrom()) & amb) == 0L) {
-                    san.append(move.getFrom().getRank().getNotation().toLowerCase());
-                } else {
-                    san.append(move.getFrom().toString().toLowerCase());
-                }
-                ambResolved = true;
-            }
-        }
-
-        if (!board.doMove(move, true)) {
-            throw new MoveConversionException("Invalid move [" +
-                    move.toString() + "] for current setup: " + board.getFEN());
-        }
-
-        Piece captured = board.getBackup().peekLast().getCapturedPiece();
-        boolean isCapture = !captured.equals(Piece.NONE);
-        if (isCapture) {
-            if (!ambResolved &&
-                    piece.getPieceType().equals(PieceType.PAWN)) {
-                san.append(move.getFrom().getFile().getNotation().toLowerCase());
-            }
-            san.append("x");
-        }
-        san.append(move.getTo().toString().toLowerCase());
-        if (!move.getPromotion().equals(Piece.NONE)) {
-            san.append("=" + notation.get(move.getPromotion()));
-        }
-        if (board.isKingAttacked()) {
-            if (board.isMated()) {
-                san.append("#");
-            } else {
-                san.append("+");
-            }
-        }
-        return san.toString();
-    }
-
-    private static long findLegalSquares(Board board, Square to, Piece promotion, long pieces) {
-        long result = 0L;
-
-        if (pieces != 0L) {
-            for (Square sqSource : Bitboard.bbToSquareList(pieces)) {
-                Move move = new Move(sqSource, to, promotion);
-                if (board.isMoveLegal(move, true)) {
-                    result |= sqSource.getBitboard();
-                    break;
-                }
-            }
-        }
-
-        return result;
+        return SanWriter.toFan(board, move);
     }
 
     /**
@@ -347,13 +213,11 @@ public class MoveList extends ArrayList<Move> implements List<Move> {
         }
         sanArray = new String[this.size()];
         final Board b = getBoard();
-        if (!b.getFEN().equals(getStartFEN())) {
-            b.loadFromFEN(getStartFEN());
-        }
+        b.loadFromFEN(getStartFEN());
+        final char buffer[] = new char[SanWriter.MAX_LENGTH];
         int i = 0;
         for (Move move : this) {
-            String sanMove = encodeToSAN(b, move);
-            sanArray[i++] = sanMove;
+            sanArray[i++] = new String(buffer, 0, SanWriter.writeSan(b, move, buffer, 0));
         }
         dirty = false;
         return sanArray;
@@ -370,13 +234,11 @@ public class MoveList extends ArrayList<Move> implements List<Move> {
         }
         fanArray = new String[this.size()];
         final Board b = getBoard();
-        if (!b.getFEN().equals(getStartFEN())) {
-            b.loadFromFEN(getStartFEN());
-        }
+        b.loadFromFEN(getStartFEN());
+        final char buffer[] = new char[SanWriter.MAX_LENGTH];
         int i = 0;
         for (Move move : this) {
-            String sanMove = encodeToFAN(b, move);
-            fanArray[i++] = sanMove;
+            fanArray[i++] = new String(buffer, 0, SanWriter.writeFan(b, move, buffer, 0));
         }
         dirty = false;
         return fanArray;
@@ -494,121 +356,7 @@ public class MoveList extends ArrayList<Move> implements List<Move> {
      * encode san to move
      */
     protected Move encodeSANToMove(Board board, String san, Side side) throws MoveConversionException {
-
-        san = san.replace("+", "");
-        san = san.replace("#", "");
-        san = san.replace("!", "");
-        san = san.replace("?", "");
-        san = san.replace("\n", " ");
-        String strPromotion = StringUtil.afterSequence(san, "=", 1);
-        san = StringUtil.beforeSequence(san, "=");
-
-        if (san.equals("O-O") || san.equals("O-O-O")) { // is castle
-            if (san.equals("O-O")) {
-                return board.getContext().getoo(side);
-            } else {
-                return board.getContext().getooo(side);
-            }
-        }
-
-        if (san.length() == 3 &&
-                Character.isUpperCase(san.charAt(2))) {
-            strPromotion = san.substring(2, 3);
-            san = san.substring(0, 2);
-        }
-
-        Square from = Square.NONE;
-        Square to = Square.NONE;
-        try {
-            to = Square.valueOf(StringUtil.lastSequence(san.toUpperCase(), 2));
-        } catch (Exception e) {
-            throw new MoveConversionException("Coudn't parse destination square[" + san + "]: " +
-                    san.toUpperCase());
-        }
-        Piece promotion = strPromotion.equals("") ? Piece.NONE :
-                Constants.getPieceByNotation(side.equals(Side.WHITE) ?
-                        strPromotion.toUpperCase() : strPromotion.toLowerCase());
-
-        if (san.length() == 2) { //is pawn move
-            long mask = Bitboard.getBbtable(to) - 1L;
-            long xfrom = (side.equals(Side.WHITE) ? mask : ~mask) & Bitboard.getFilebb(to) &
-                    board.getBitboard(Piece.make(side, PieceType.PAWN));
-            int f = side.equals(Side.BLACK) ? Bitboard.bitScanForward(xfrom) :
-                    Bitboard.bitScanReverse(xfrom);
-            if (f >= 0 && f <= 63) {
-                from = Square.squareAt(f);
-            }
-        } else {
-
-            String strFrom = (san.indexOf("x") >= 0 ?
-                    StringUtil.beforeSequence(san, "x") :
-                    san.substring(0, san.length() - 2));
-
-            if (strFrom == null ||
-                    strFrom.length() == 0 || strFrom.length() > 3) {
-                throw new MoveConversionException("Couldn't parse 'from' square " + san + ": Too many/few characters.");
-            }
-
-            PieceType fromPiece = PieceType.PAWN;
-
-            if (Character.isUpperCase(strFrom.charAt(0))) {
-                fromPiece = sanNotationR.get(strFrom.charAt(0) + "");
-            }
-
-            if (strFrom.length() == 3) {
-                from = Square.valueOf(strFrom.substring(1, 3).toUpperCase());
-            } else {
-                String location = "";
-                if (strFrom.length() == 2) {
-                    if (Character.isUpperCase(strFrom.charAt(0))) {
-                        location = strFrom.substring(1, 2);
-                    } else {
-                        location = strFrom.substring(0, 2);
-                        from = Square.valueOf(location.toUpperCase());
-                    }
-                } else {
-                    if (Character.isLowerCase(strFrom.charAt(0))) {
-                        location = strFrom;
-                    }
-                }
-                if (location.length() < 2) {
-                    //resolving ambiguous from
-                    long xfrom = board.squareAttackedByPieceType(to,
-                            board.getSideToMove(), fromPiece);
-                    if (location.length() > 0) {
-                        if (Character.isDigit(location.charAt(0))) {
-                            int irank = Integer.parseInt(location);
-                            if (!(irank >= 1 && irank <= 8)) {
-                                throw new MoveConversionException("Couldn't parse rank: " + location);
-                            }
-                            Rank rank = Rank.values()[irank - 1];
-                            xfrom &= Bitboard.getRankbb(rank);
-                        } else {
-                            try {
-                                File file = File.valueOf("FILE_" + location.toUpperCase());
-                                xfrom &= Bitboard.getFilebb(file);
-                            } catch (Exception e) {
-                                throw new MoveConversionException("Couldn't parse file: " + location);
-                            }
-                        }
-                    }
-                    if (xfrom != 0L) {
-                        if (!Bitboard.hasOnly1Bit(xfrom)) {
-                            xfrom = findLegalSquares(board, to, promotion, xfrom);
-                        }
-                        int f = Bitboard.bitScanForward(xfrom);
-                        if (f >= 0 && f <= 63) {
-                            from = Square.squareAt(f);
-                        }
-                    }
-                }
-            }
-
-        }
-        if (from.equals(Square.NONE)) {
-            throw new MoveConversionException("Couldn't parse 'from' square " + san + " to setup: " + board.getFEN());
-        }
-        return new Move(from, to, promotion);
+        return PackedMove.toMove(SanParser.decode(board, side, san, 0, san.length()), side);
     }
 
     /**
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.move;
+
+import com.github.bhlangonijr.chesslib.*;
+
+/**
+ * Moves packed into an int, for allocation-free move generation.
+ * <p>
+ * The low 16 bits hold the move itself and can be stored as a short:
+ * <pre>
+ * bits  0-5   from square
+ * bits  6-11  to square
+ * bits 12-14  promotion piece type (0 = no promotion)
+ * </pre>
+ * The upper bits hold flags set by the move generator. They are only
+ * informative, {@link Board#doMove(int)} does not rely on them.
+ */
+public final class PackedMove {
+
+    public static final int NONE = 0;
+
+    public static final int CAPTURE = 1 << 16;
+    public static final int EN_PASSANT = 1 << 17;
+    public static final int CASTLE = 1 << 18;
+    public static final int DOUBLE_PUSH = 1 << 19;
+
+    private static final int SQUARE_MASK = 0x3F;
+    private static final int TO_SHIFT = 6;
+    private static final int PROMOTION_SHIFT = 12;
+    private static final int PROMOTION_MASK = 0x7;
+    private static final int MOVE_MASK = 0xFFFF;
+
+    private static final PieceType pieceTypes[] = PieceType.values();
+
+    private PackedMove() {
+    }
+
+    /**
+     * Pack a move
+     *
+     * @param from          from square index
+     * @param to            to square index
+     * @param promotionType promotion piece type ordinal, 0 if none
+     * @param flags
+     * @return the packed move
+     */
+    public static int encode(int from, int to, int promotionType, int flags) {
+        return from | (to << TO_SHIFT) | (promotionType << PROMOTION_SHIFT) | flags;
+    }
+
+    /**
+     * Pack a move
+     *
+     * @param from
+     * @param to
+     * @param promotion
+     * @return the packed move
+     */
+    public static int encode(Square from, Square to, Piece promotion) {
+        return encode(from.ordinal(), to.ordinal(),
+                Piece.NONE.equals(promotion) ? 0 : promotion.getPieceType().ordinal(), 0);
+    }
+
+    /**
+     * Pack a move
+     *
+     * @param move
+     * @return the packed move
+     */
+    public static int encode(Move move) {
+        return encode(move.getFrom(), move.getTo(), move.getPromotion());
+    }
+
+    /**
+     * @param move
+     * @return the from square index
+     */
+    public static int getFromIndex(int move) {
+        return move & SQUARE_MASK;
+    }
+
+    /**
+     * @param move
+     * @return the to square index
+     */
+    public static int getToIndex(int move) {
+        return (move >>> TO_SHIFT) & SQUARE_MASK;
+    }
+
+    public static Square getFrom(int move) {
+        return Square.squareAt(getFromIndex(move));
+    }
+
+    public static Square getTo(int move) {
+        return Square.squareAt(getToIndex(move));
+    }
+
+    /**
+     * @param move
+     * @return the promotion piece type, or PieceType.NONE
+     */
+    public static PieceType getPromotionType(int move) {
+        int type = (move >>> PROMOTION_SHIFT) & PROMOTION_MASK;
+        return type == 0 ? PieceType.NONE : pieceTypes[type];
+    }
+
+    /**
+     * @param move
+     * @param side side of the promoting pawn
+     * @return the promotion piece, or Piece.NONE
+     */
+    public static Piece getPromotion(int move, Side side) {
+        int type = (move >>> PROMOTION_SHIFT) & PROMOTION_MASK;
+        return type == 0 ? Piece.NONE : Piece.make(side, pieceTypes[type]);
+    }
+
+    /**
+     * Strip the flags, leaving the 16 bit move
+     *
+     * @param move
+     * @return
+     */
+    public static int compact(int move) {
+        return move & MOVE_MASK;
+    }
+
+    public static boolean isCapture(int move) {
+        return (move & CAPTURE) != 0;
+    }
+
+    public static boolean isEnPassant(int move) {
+        return (move & EN_PASSANT) != 0;
+    }
+
+    public static boolean isCastle(int move) {
+        return (move & CASTLE) != 0;
+    }
+
+    public static boolean isDoublePush(int move) {
+        return (move & DOUBLE_PUSH) != 0;
+    }
+
+    /**
+     * Unpack into a Move object
+     *
+     * @param move
+     * @param side side to move
+     * @return
+     */
+    public static Move toMove(int move, Side side) {
+        return new Move(getFrom(move), getTo(move), getPromotion(move, side));
+    }
+
+    /**
+     * @param move
+     * @return the move in long algebraic notation, e.g. e7e8q
+     */
+    public static String toString(int move) {
+        String s = getFrom(move).toString().toLowerCase() +
+                getTo(move).toString().toLowerCase();
+        PieceType promotion = getPromotionType(move);
+        if (!PieceType.NONE.equals(promotion)) {
+            s += Constants.getPieceNotation(Piece.make(Side.BLACK, promotion));
+        }
+        return s;
+    }
+}
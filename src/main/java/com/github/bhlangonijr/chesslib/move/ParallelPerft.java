@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.move;
+
+import com.github.bhlangonijr.chesslib.Board;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fork/join walker of the legal move tree.
+ * <p>
+ * The tree is split into one subtask per move down to the split depth, each
+ * subtask working on its own clone of the board; below that a subtask walks
+ * its subtree sequentially with preallocated move buffers. Boards are never
+ * shared between threads, the move generator itself is stateless.
+ * <p>
+ * Besides perft, the walker can hand every position to a {@link PositionVisitor},
+ * e.g. to expand an opening tree or generate test positions in parallel.
+ */
+public class ParallelPerft {
+
+    /**
+     * Callback for {@link #walk(Board, int, PositionVisitor)}. It is called
+     * concurrently from the pool threads, so implementations must be thread-safe.
+     * The board must be left as it was received.
+     */
+    public interface PositionVisitor {
+
+        /**
+         * @param board position being visited
+         * @param ply   distance from the root
+         * @return false to skip the subtree of this position
+         */
+        boolean visit(Board board, int ply);
+    }
+
+    private final ForkJoinPool pool;
+    private final Map<Thread, AtomicLong> threadNodes = new ConcurrentHashMap<Thread, AtomicLong>();
+    private int splitDepth = 2;
+    private long nodes;
+    private long elapsed;
+
+    public ParallelPerft() {
+        this(new ForkJoinPool());
+    }
+
+    public ParallelPerft(int parallelism) {
+        this(new ForkJoinPool(parallelism));
+    }
+
+    public ParallelPerft(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Count the leaf nodes at depth, leaves are bulk counted
+     *
+     * @param board
+     * @param depth
+     * @return number of leaf nodes
+     */
+    public long perft(Board board, int depth) {
+        return run(new WalkTask(copy(board), depth, 0, null));
+    }
+
+    /**
+     * Visit every position of the tree up to depth, root included
+     *
+     * @param board
+     * @param depth
+     * @param visitor
+     * @return number of positions visited
+     */
+    public long walk(Board board, int depth, PositionVisitor visitor) {
+        return run(new WalkTask(copy(board), depth, 0, visitor));
+    }
+
+    private long run(WalkTask task) {
+        threadNodes.clear();
+        long start = System.nanoTime();
+        nodes = pool.invoke(task);
+        elapsed = System.nanoTime() - start;
+        return nodes;
+    }
+
+    private void addThreadNodes(long n) {
+        Thread thread = Thread.currentThread();
+        AtomicLong counter = threadNodes.get(thread);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = threadNodes.putIfAbsent(thread, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(n);
+    }
+
+    private static Board copy(Board board) {
+        try {
+            return board.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class WalkTask extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final int depth;
+        private final int ply;
+        private final PositionVisitor visitor;
+
+        WalkTask(Board board, int depth, int ply, PositionVisitor visitor) {
+            this.board = board;
+            this.depth = depth;
+            this.ply = ply;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected Long compute() {
+            try {
+                if (ply >= splitDepth || depth <= 1) {
+                    long n = new Walker(visitor, depth).walk(board, depth, ply);
+                    addThreadNodes(n);
+                    return n;
+                }
+                long n = 0L;
+                if (visitor != null) {
+                    if (!visitor.visit(board, ply)) {
+                        addThreadNodes(1L);
+                        return 1L;
+                    }
+                    n = 1L;
+                    addThreadNodes(1L);
+                }
+                int moves[] = new int[MoveGenerator.MAX_MOVES];
+                int count = MoveGenerator.getInstance().generateLegalMoves(board, moves);
+                List<WalkTask> tasks = new ArrayList<WalkTask>(count);
+                for (int i = 0; i < count; i++) {
+                    Board child = copy(board);
+                    child.doMove(moves[i], false);
+                    tasks.add(new WalkTask(child, depth - 1, ply + 1, visitor));
+                }
+                for (WalkTask task : invokeAll(tasks)) {
+                    n += task.join();
+                }
+                return n;
+            } catch (MoveGeneratorException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /*
+     * Sequential walk of a subtree, with one move buffer per ply
+     */
+    private static class Walker {
+
+        private final PositionVisitor visitor;
+        private final int moves[][];
+
+        Walker(PositionVisitor visitor, int depth) {
+            this.visitor = visitor;
+            this.moves = new int[depth + 1][MoveGenerator.MAX_MOVES];
+        }
+
+        long walk(Board board, int depth, int ply) throws MoveGeneratorException {
+            long n = 0L;
+            if (visitor != null) {
+                n = 1L;
+                if (!visitor.visit(board, ply) || depth == 0) {
+                    return n;
+                }
+            } else if (depth == 0) {
+                return 1L;
+            }
+            final int buffer[] = moves[depth];
+            final int count = MoveGenerator.getInstance().generateLegalMoves(board, buffer);
+            if (visitor == null && depth == 1) {
+                return count;
+            }
+            for (int i = 0; i < count; i++) {
+                board.doMove(buffer[i], false);
+                n += walk(board, depth - 1, ply + 1);
+                board.undoPackedMove();
+            }
+            return n;
+        }
+    }
+
+    /**
+     * @return nodes counted by each pool thread in the last run, by thread name
+     */
+    public Map<String, Long> getThreadNodes() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<Thread, AtomicLong> entry : threadNodes.entrySet()) {
+            result.put(entry.getKey().getName(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * @return nodes counted by the last run
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return duration of the last run in nanoseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return nodes per second of the last run
+     */
+    public long getNodesPerSecond() {
+        return elapsed > 0 ? nodes * 1000000000L / elapsed : 0L;
+    }
+
+    /**
+     * @return the number of plies split into parallel subtasks
+     */
+    public int getSplitDepth() {
+        return splitDepth;
+    }
+
+    /**
+     * @param splitDepth number of plies split into parallel subtasks, the
+     *                   rest of the tree is walked sequentially by each subtask
+     */
+    public void setSplitDepth(int splitDepth) {
+        this.splitDepth = splitDepth;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public static void main(String args[]) throws Exception {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        ParallelPerft perft = new ParallelPerft();
+        boolean ok = true;
+        for (Perft.Position position : Perft.Position.values()) {
+            Board board = new Board();
+            board.loadFromFEN(position.getFen());
+            int d = Math.min(depth, position.getMaxDepth());
+            long n = perft.perft(board, d);
+            boolean match = n == position.getNodes(d);
+            ok &= match;
+            System.out.println(String.format("%-10s depth %d nodes %12d expected %12d %s %10d nps",
+                    position.name(), d, n, position.getNodes(d),
+                    match ? "ok  " : "FAIL", perft.getNodesPerSecond()));
+            for (Map.Entry<String, Long> entry : perft.getThreadNodes().entrySet()) {
+                System.out.println("    " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
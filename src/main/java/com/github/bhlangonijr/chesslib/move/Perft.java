@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.move;
+
+import com.github.bhlangonijr.chesslib.Board;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Perft - counts the leaf nodes of the legal move tree to a fixed depth.
+ * <p>
+ * Used both as a correctness check of the move generator and
+ * doMove/undoMove, and as a throughput yardstick. Moves are generated into
+ * preallocated int buffers, one per ply, so a run doesn't allocate.
+ * <p>
+ * Run the standard suite with
+ * <pre>
+ * java com.github.bhlangonijr.chesslib.move.Perft [maxDepth]
+ * </pre>
+ * or divide a single position with
+ * <pre>
+ * java com.github.bhlangonijr.chesslib.move.Perft depth "fen"
+ * </pre>
+ */
+public class Perft {
+
+    /**
+     * Well-known positions with their published node counts, indexed by depth - 1
+     */
+    public enum Position {
+
+        START("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                20L, 400L, 8902L, 197281L, 4865609L, 119060324L),
+        KIWIPETE("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                48L, 2039L, 97862L, 4085603L, 193690690L),
+        EN_PASSANT("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                14L, 191L, 2812L, 43238L, 674624L, 11030083L),
+        PROMOTION("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                6L, 264L, 9467L, 422333L, 15833292L),
+        CHECKS("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                44L, 1486L, 62379L, 2103487L, 89941194L),
+        MIDDLEGAME("r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                46L, 2079L, 89890L, 3894594L, 164075551L);
+
+        private final String fen;
+        private final long nodes[];
+
+        Position(String fen, long... nodes) {
+            this.fen = fen;
+            this.nodes = nodes;
+        }
+
+        public String getFen() {
+            return fen;
+        }
+
+        /**
+         * @return the deepest depth with a known node count
+         */
+        public int getMaxDepth() {
+            return nodes.length;
+        }
+
+        /**
+         * @param depth
+         * @return the expected number of leaf nodes at depth
+         */
+        public long getNodes(int depth) {
+            return nodes[depth - 1];
+        }
+    }
+
+    private final MoveGenerator generator = MoveGenerator.getInstance();
+    private int moves[][] = new int[0][];
+    private boolean bulkCounting = true;
+    private long nodes;
+    private long elapsed;
+
+    /**
+     * Count the leaf nodes at depth
+     *
+     * @param board
+     * @param depth
+     * @return number of leaf nodes
+     * @throws MoveGeneratorException
+     */
+    public long perft(Board board, int depth) throws MoveGeneratorException {
+        ensureCapacity(depth);
+        long start = System.nanoTime();
+        nodes = depth > 0 ? search(board, depth) : 1L;
+        elapsed = System.nanoTime() - start;
+        return nodes;
+    }
+
+    /**
+     * Count the leaf nodes at depth under each legal move of the position
+     *
+     * @param board
+     * @param depth
+     * @return leaf node count by root move, in generation order
+     * @throws MoveGeneratorException
+     */
+    public Map<Move, Long> divide(Board board, int depth) throws MoveGeneratorException {
+        ensureCapacity(depth);
+        Map<Move, Long> result = new LinkedHashMap<Move, Long>();
+        long start = System.nanoTime();
+        long total = 0L;
+        int buffer[] = moves[depth];
+        int count = generator.generateLegalMoves(board, buffer);
+        for (int i = 0; i < count; i++) {
+            Move move = PackedMove.toMove(buffer[i], board.getSideToMove());
+            long n = 1L;
+            if (depth > 1) {
+                board.doMove(buffer[i], false);
+                n = search(board, depth - 1);
+                board.undoPackedMove();
+            }
+            result.put(move, n);
+            total += n;
+        }
+        nodes = total;
+        elapsed = System.nanoTime() - start;
+        return result;
+    }
+
+    private long search(Board board, int depth) throws MoveGeneratorException {
+        final int buffer[] = moves[depth];
+        final int count = generator.generateLegalMoves(board, buffer);
+        if (depth == 1 && bulkCounting) {
+            return count;
+        }
+        long n = 0L;
+        for (int i = 0; i < count; i++) {
+            // without bulk counting the leaves are made on the board as well
+            board.doMove(buffer[i], false);
+            n += depth == 1 ? 1L : search(board, depth - 1);
+            board.undoPackedMove();
+        }
+        return n;
+    }
+
+    private void ensureCapacity(int depth) {
+        if (moves.length <= depth) {
+            int buffers[][] = new int[depth + 1][];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = i < moves.length ? moves[i] : new int[MoveGenerator.MAX_MOVES];
+            }
+            moves = buffers;
+        }
+    }
+
+    /**
+     * Run the standard positions up to maxDepth and compare against the known counts
+     *
+     * @param maxDepth
+     * @param out      where to report each position, may be null
+     * @return true if every count matched
+     * @throws MoveGeneratorException
+     */
+    public boolean verify(int maxDepth, PrintStream out) throws MoveGeneratorException {
+        boolean ok = true;
+        for (Position position : Position.values()) {
+            Board board = new Board();
+            board.loadFromFEN(position.getFen());
+            int depth = Math.min(maxDepth, position.getMaxDepth());
+            for (int d = 1; d <= depth; d++) {
+                long n = perft(board, d);
+                boolean match = n == position.getNodes(d);
+                ok &= match;
+                if (out != null) {
+                    out.println(String.format("%-10s depth %d nodes %12d expected %12d %s %10d nps",
+                            position.name(), d, n, position.getNodes(d),
+                            match ? "ok  " : "FAIL", getNodesPerSecond()));
+                }
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * @return leaf nodes counted by the last run
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return duration of the last run in nanoseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return leaf nodes per second of the last run
+     */
+    public long getNodesPerSecond() {
+        return elapsed > 0 ? nodes * 1000000000L / elapsed : 0L;
+    }
+
+    /**
+     * @return true if leaf nodes are counted from the move count of their
+     * parent instead of being made on the board
+     */
+    public boolean isBulkCounting() {
+        return bulkCounting;
+    }
+
+    /**
+     * @param bulkCounting count the leaves without making them on the board
+     */
+    public void setBulkCounting(boolean bulkCounting) {
+        this.bulkCounting = bulkCounting;
+    }
+
+    public static void main(String args[]) throws Exception {
+        Perft perft = new Perft();
+        if (args.length > 1) {
+            Board board = new Board();
+            board.loadFromFEN(args[1]);
+            int depth = Integer.parseInt(args[0]);
+            for (Map.Entry<Move, Long> entry : perft.divide(board, depth).entrySet()) {
+                System.out.println(entry.getKey() + ": " + entry.getValue());
+            }
+            System.out.println("nodes " + perft.getNodes() + " nps " + perft.getNodesPerSecond());
+        } else {
+            int depth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+            if (!perft.verify(depth, System.out)) {
+                System.exit(1);
+            }
+        }
+    }
+}
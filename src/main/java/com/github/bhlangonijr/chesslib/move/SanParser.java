@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.move;
+
+import com.github.bhlangonijr.chesslib.*;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass SAN reader.
+ * <p>
+ * The move text is scanned once, straight from any CharSequence, without
+ * building intermediate Strings. Piece letters, files and ranks are looked
+ * up in char tables and the origin square comes from the attack bitboard of
+ * the moving piece type at the target square, narrowed by the
+ * disambiguation file/rank. Only when several pieces remain (one of them
+ * pinned) is legality tested, on the remaining candidates only.
+ * <p>
+ * Check, mate and annotation suffixes (+ # ! ?) are skipped, promotions
+ * are accepted as e8=Q or e8Q and castling as O-O or 0-0.
+ */
+public final class SanParser {
+
+    private static final int NO_TYPE = -1;
+    private static final long FILE_A = 0x0101010101010101L;
+    private static final long RANK_1 = 0xFFL;
+
+    // piece type ordinal by SAN letter
+    private static final int pieceTypeByChar[] = new int[128];
+
+    static {
+        Arrays.fill(pieceTypeByChar, NO_TYPE);
+        pieceTypeByChar['N'] = PieceType.KNIGHT.ordinal();
+        pieceTypeByChar['B'] = PieceType.BISHOP.ordinal();
+        pieceTypeByChar['R'] = PieceType.ROOK.ordinal();
+        pieceTypeByChar['Q'] = PieceType.QUEEN.ordinal();
+        pieceTypeByChar['K'] = PieceType.KING.ordinal();
+    }
+
+    private static final PieceType pieceTypes[] = PieceType.values();
+
+    private SanParser() {
+    }
+
+    /**
+     * Parse a SAN move for the side to move
+     *
+     * @param board
+     * @param san
+     * @return the move
+     * @throws MoveConversionException if the text is not a SAN move on the board
+     */
+    public static Move parse(Board board, CharSequence san) throws MoveConversionException {
+        return PackedMove.toMove(decode(board, board.getSideToMove(), san, 0, san.length()),
+                board.getSideToMove());
+    }
+
+    /**
+     * Parse a SAN move for the side to move from a region of a char sequence
+     *
+     * @param board
+     * @param san
+     * @param start index of the first char
+     * @param end   index after the last char
+     * @return the packed move
+     * @throws MoveConversionException if the text is not a SAN move on the board
+     */
+    public static int parsePacked(Board board, CharSequence san, int start, int end)
+            throws MoveConversionException {
+        return decode(board, board.getSideToMove(), san, start, end);
+    }
+
+    static int decode(Board board, Side side, CharSequence san, int start, int end)
+            throws MoveConversionException {
+        while (start < end && san.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && isSuffix(san.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start < 2) {
+            throw error("Couldn't parse SAN, too few characters", san, start, end);
+        }
+
+        char c = san.charAt(start);
+        if (c == 'O' || c == '0') {
+            return castle(board, side, san, start, end);
+        }
+
+        int type = PieceType.PAWN.ordinal();
+        int pos = start;
+        if (c < 128 && pieceTypeByChar[c] != NO_TYPE) {
+            type = pieceTypeByChar[c];
+            pos++;
+        } else if (c == 'P') {
+            pos++;
+        }
+
+        int promotion = 0;
+        c = san.charAt(end - 1);
+        if (c >= 'A') {
+            int promo = c < 128 ? pieceTypeByChar[Character.toUpperCase(c)] : NO_TYPE;
+            if (promo == NO_TYPE || promo == PieceType.KING.ordinal() ||
+                    type != PieceType.PAWN.ordinal()) {
+                throw error("Couldn't parse promotion piece", san, start, end);
+            }
+            promotion = promo;
+            end--;
+            if (end > pos && san.charAt(end - 1) == '=') {
+                end--;
+            }
+        }
+
+        if (end - pos < 2) {
+            throw error("Couldn't parse destination square", san, start, end);
+        }
+        int toFile = san.charAt(end - 2) - 'a';
+        int toRank = san.charAt(end - 1) - '1';
+        if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7) {
+            throw error("Couldn't parse destination square", san, start, end);
+        }
+        int to = (toRank << 3) | toFile;
+
+        int fromFile = -1;
+        int fromRank = -1;
+        for (int i = pos; i < end - 2; i++) {
+            c = san.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromFile = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRank = c - '1';
+            } else if (c != 'x' && c != ':' && c != '-') {
+                throw error("Couldn't parse 'from' square", san, start, end);
+            }
+        }
+
+        int from;
+        if (fromFile >= 0 && fromRank >= 0) {
+            from = (fromRank << 3) | fromFile;
+        } else if (type == PieceType.PAWN.ordinal() && fromFile < 0) {
+            from = pawnPushOrigin(board, side, to);
+        } else {
+            long candidates = board.squareAttackedByPieceType(Square.squareAt(to), side, pieceTypes[type]);
+            if (fromFile >= 0) {
+                candidates &= FILE_A << fromFile;
+            }
+            if (fromRank >= 0) {
+                candidates &= RANK_1 << (fromRank << 3);
+            }
+            from = resolve(board, side, candidates, to, promotion);
+        }
+        if (from < 0) {
+            throw new MoveConversionException("Couldn't parse 'from' square " +
+                    san.subSequence(start, end) + " to setup: " + board.getFEN());
+        }
+        return PackedMove.encode(from, to, promotion, 0);
+    }
+
+    /*
+     * the nearest pawn behind the target square on its file
+     */
+    private static int pawnPushOrigin(Board board, Side side, int to) {
+        long mask = (1L << to) - 1L;
+        long pawns = (Side.WHITE.equals(side) ? mask : ~mask) & (FILE_A << (to & 7)) &
+                board.getBitboard(Piece.make(side, PieceType.PAWN));
+        if (pawns == 0L) {
+            return -1;
+        }
+        return Side.WHITE.equals(side) ? Bitboard.bitScanReverse(pawns) : Bitboard.bitScanForward(pawns);
+    }
+
+    /*
+     * pick the candidate that can legally move, a pinned piece being the usual ambiguity
+     */
+    private static int resolve(Board board, Side side, long candidates, int to, int promotion) {
+        if (candidates == 0L) {
+            return -1;
+        }
+        if (Bitboard.hasOnly1Bit(candidates)) {
+            return Bitboard.bitScanForward(candidates);
+        }
+        Square target = Square.squareAt(to);
+        Piece promo = promotion == 0 ? Piece.NONE : Piece.make(side, pieceTypes[promotion]);
+        while (candidates != 0L) {
+            int sq = Bitboard.bitScanForward(candidates);
+            if (board.isMoveLegal(Square.squareAt(sq), target, promo, false)) {
+                return sq;
+            }
+            candidates = Bitboard.extractLsb(candidates);
+        }
+        return -1;
+    }
+
+    private static int castle(Board board, Side side, CharSequence san, int start, int end)
+            throws MoveConversionException {
+        int len = end - start;
+        if (len != 3 && len != 5) {
+            throw error("Couldn't parse castle", san, start, end);
+        }
+        char o = san.charAt(start);
+        for (int i = start; i < end; i++) {
+            if (san.charAt(i) != ((i - start) % 2 == 0 ? o : '-')) {
+                throw error("Couldn't parse castle", san, start, end);
+            }
+        }
+        Move move = len == 3 ? board.getContext().getoo(side) : board.getContext().getooo(side);
+        return PackedMove.encode(move.getFrom().ordinal(), move.getTo().ordinal(), 0, PackedMove.CASTLE);
+    }
+
+    private static boolean isSuffix(char c) {
+        return c == '+' || c == '#' || c == '!' || c == '?' || c <= ' ';
+    }
+
+    private static MoveConversionException error(String message, CharSequence san, int start, int end) {
+        return new MoveConversionException(message + ": " + san.subSequence(start, end));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.move;
+
+import com.github.bhlangonijr.chesslib.*;
+
+/**
+ * SAN/FAN writer.
+ * <p>
+ * Disambiguation comes from the attack bitboards of the moving piece type,
+ * check from a king attack test after the move and mate from
+ * {@link Board#hasAnyLegalMove()}, so no move list is generated. Moves are
+ * written into a caller-supplied char buffer of at least
+ * {@link #MAX_LENGTH} free chars.
+ * <p>
+ * Like the rest of the SAN conversion, writing a move also executes it on
+ * the board, so a game is written by calling it once per move.
+ */
+public final class SanWriter {
+
+    /**
+     * Longest SAN/FAN a single move can take
+     */
+    public static final int MAX_LENGTH = 12;
+
+    private static final char sanSymbol[] = {
+            0, 'N', 'B', 'R', 'Q', 'K',
+            0, 'N', 'B', 'R', 'Q', 'K', 0
+    };
+
+    private static final char fanSymbol[] = {
+            '\u2659', '\u2658', '\u2657', '\u2656', '\u2655', '\u2654',
+            '\u265F', '\u265E', '\u265D', '\u265C', '\u265B', '\u265A', 0
+    };
+
+    private SanWriter() {
+    }
+
+    /**
+     * Write the move in SAN and execute it on the board
+     *
+     * @param board
+     * @param move
+     * @param buffer
+     * @param offset
+     * @return the offset after the last char written
+     * @throws MoveConversionException if the move is not legal on the board
+     */
+    public static int writeSan(Board board, Move move, char buffer[], int offset)
+            throws MoveConversionException {
+        return write(board, move, buffer, offset, sanSymbol);
+    }
+
+    /**
+     * Write the move in FAN and execute it on the board
+     *
+     * @param board
+     * @param move
+     * @param buffer
+     * @param offset
+     * @return the offset after the last char written
+     * @throws MoveConversionException if the move is not legal on the board
+     */
+    public static int writeFan(Board board, Move move, char buffer[], int offset)
+            throws MoveConversionException {
+        return write(board, move, buffer, offset, fanSymbol);
+    }
+
+    /**
+     * Append the move in SAN and execute it on the board
+     *
+     * @param board
+     * @param move
+     * @param sb
+     * @throws MoveConversionException if the move is not legal on the board
+     */
+    public static void writeSan(Board board, Move move, StringBuilder sb)
+            throws MoveConversionException {
+        char buffer[] = new char[MAX_LENGTH];
+        sb.append(buffer, 0, writeSan(board, move, buffer, 0));
+    }
+
+    /**
+     * @param board
+     * @param move
+     * @return the move in SAN, after executing it on the board
+     * @throws MoveConversionException if the move is not legal on the board
+     */
+    public static String toSan(Board board, Move move) throws MoveConversionException {
+        char buffer[] = new char[MAX_LENGTH];
+        return new String(buffer, 0, writeSan(board, move, buffer, 0));
+    }
+
+    /**
+     * @param board
+     * @param move
+     * @return the move in FAN, after executing it on the board
+     * @throws MoveConversionException if the move is not legal on the board
+     */
+    public static String toFan(Board board, Move move) throws MoveConversionException {
+        char buffer[] = new char[MAX_LENGTH];
+        return new String(buffer, 0, writeFan(board, move, buffer, 0));
+    }
+
+    private static int write(Board board, Move move, char buffer[], int offset, char symbol[])
+            throws MoveConversionException {
+        final Square from = move.getFrom();
+        final Square to = move.getTo();
+        final Piece piece = board.getPiece(from);
+        final PieceType type = piece.getPieceType();
+        if (type == null) {
+            throw invalidMove(board, move);
+        }
+        int pos = offset;
+
+        if (PieceType.KING.equals(type)) {
+            int delta = to.getFile().ordinal() - from.getFile().ordinal();
+            if (Math.abs(delta) >= 2) { // is castle
+                doMove(board, move);
+                buffer[pos++] = 'O';
+                buffer[pos++] = '-';
+                buffer[pos++] = 'O';
+                if (delta < 0) {
+                    buffer[pos++] = '-';
+                    buffer[pos++] = 'O';
+                }
+                return pos;
+            }
+        }
+
+        if (symbol[piece.ordinal()] != 0) {
+            buffer[pos++] = symbol[piece.ordinal()];
+        }
+        final boolean pawn = PieceType.PAWN.equals(type);
+        final boolean sameFile = from.getFile().equals(to.getFile());
+        boolean ambResolved = false;
+        if (!pawn || !sameFile) {
+            // other pieces of the same type attacking the target square
+            long amb = board.squareAttackedByPieceType(to, board.getSideToMove(), type) &
+                    ~from.getBitboard();
+            if (amb != 0L) {
+                if ((Bitboard.getFilebb(from) & amb) == 0L) {
+                    buffer[pos++] = fileChar(from);
+                } else if ((Bitboard.getRankbb(from) & amb) == 0L) {
+                    buffer[pos++] = rankChar(from);
+                } else {
+                    buffer[pos++] = fileChar(from);
+                    buffer[pos++] = rankChar(from);
+                }
+                ambResolved = true;
+            }
+        }
+
+        final boolean capture = !Piece.NONE.equals(board.getPiece(to)) || (pawn && !sameFile);
+        doMove(board, move);
+
+        if (capture) {
+            if (!ambResolved && pawn) {
+                buffer[pos++] = fileChar(from);
+            }
+            buffer[pos++] = 'x';
+        }
+        buffer[pos++] = fileChar(to);
+        buffer[pos++] = rankChar(to);
+        if (!Piece.NONE.equals(move.getPromotion())) {
+            buffer[pos++] = '=';
+            buffer[pos++] = symbol[move.getPromotion().ordinal()];
+        }
+        if (board.isKingAttacked()) {
+            buffer[pos++] = board.hasAnyLegalMove() ? '+' : '#';
+        }
+        return pos;
+    }
+
+    private static void doMove(Board board, Move move) throws MoveConversionException {
+        if (!board.doMove(move, true)) {
+            throw invalidMove(board, move);
+        }
+    }
+
+    private static MoveConversionException invalidMove(Board board, Move move) {
+        return new MoveConversionException("Invalid move [" +
+                move.toString() + "] for current setup: " + board.getFEN());
+    }
+
+    private static char fileChar(Square sq) {
+        return (char) ('a' + (sq.ordinal() & 7));
+    }
+
+    private static char rankChar(Square sq) {
+        return (char) ('1' + (sq.ordinal() >>> 3));
+    }
+}
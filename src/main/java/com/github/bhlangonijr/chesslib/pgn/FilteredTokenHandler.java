@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Holds back the tags of each game until its header is complete, then
+ * replays them to the delegate only if the filter accepts the game
+ */
+class FilteredTokenHandler implements PgnTokenHandler {
+
+    private final PgnFilter filter;
+    private final PgnTokenHandler delegate;
+    private final boolean matched[];
+    private int tags[] = new int[64];
+    private int tagCount;
+    private ByteBuffer buffer;
+    private long gameOffset;
+    private boolean rejected;
+    private boolean accepted;
+
+    FilteredTokenHandler(PgnFilter filter, PgnTokenHandler delegate) {
+        this.filter = filter;
+        this.delegate = delegate;
+        this.matched = new boolean[filter.size()];
+    }
+
+    @Override
+    public void startGame(long offset) {
+        gameOffset = offset;
+        tagCount = 0;
+        rejected = false;
+        accepted = false;
+        Arrays.fill(matched, false);
+    }
+
+    @Override
+    public void tag(ByteBuffer buffer, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (rejected) {
+            return;
+        }
+        if (!filter.test(matched, buffer, nameStart, nameEnd, valueStart, valueEnd)) {
+            rejected = true;
+            return;
+        }
+        if (tagCount + 4 > tags.length) {
+            tags = Arrays.copyOf(tags, tags.length * 2);
+        }
+        this.buffer = buffer;
+        tags[tagCount++] = nameStart;
+        tags[tagCount++] = nameEnd;
+        tags[tagCount++] = valueStart;
+        tags[tagCount++] = valueEnd;
+    }
+
+    @Override
+    public boolean endTags() throws Exception {
+        if (!filter.accept(rejected, matched)) {
+            return false;
+        }
+        accepted = true;
+        delegate.startGame(gameOffset);
+        for (int i = 0; i < tagCount; i += 4) {
+            delegate.tag(buffer, tags[i], tags[i + 1], tags[i + 2], tags[i + 3]);
+        }
+        return delegate.endTags() && !filter.isHeadersOnly();
+    }
+
+    @Override
+    public void moveText(ByteBuffer buffer, int start, int end) throws Exception {
+        delegate.moveText(buffer, start, end);
+    }
+
+    @Override
+    public void endGame(long offset) throws Exception {
+        if (accepted) {
+            delegate.endGame(offset);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import com.github.bhlangonijr.chesslib.game.Game;
+import com.github.bhlangonijr.chesslib.game.GameResult;
+import com.github.bhlangonijr.chesslib.util.StringUtil;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Builds {@link Game}s from the tokens of a {@link PgnTokenizer} and hands
+ * each complete game to a listener
+ */
+class GameBuilder implements PgnTokenHandler {
+
+    private final PGNLoadListener sink;
+    private final boolean lazyLoad;
+    private Game game;
+    private int size;
+    private boolean offsetIds;
+    private byte scratch[] = new byte[4096];
+
+    GameBuilder(PGNLoadListener sink, boolean lazyLoad) {
+        this.sink = sink;
+        this.lazyLoad = lazyLoad;
+    }
+
+    @Override
+    public void startGame(long offset) {
+        game = new Game(String.valueOf(offsetIds ? offset : size));
+        size++;
+    }
+
+    @Override
+    public void tag(ByteBuffer buffer, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        setTag(game, buffer, nameStart, nameEnd, valueStart, valueEnd);
+    }
+
+    @Override
+    public boolean endTags() {
+        return true;
+    }
+
+    @Override
+    public void moveText(ByteBuffer buffer, int start, int end) throws Exception {
+        setMoveText(game, decodeMoveText(buffer, start, end), lazyLoad);
+    }
+
+    @Override
+    public void endGame(long offset) throws Exception {
+        Game g = game;
+        game = null;
+        sink.notifyProgress(g);
+    }
+
+    /**
+     * @return number of games started so far
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @param offsetIds use the file offset of a game as its id instead of its index
+     */
+    void setOffsetIds(boolean offsetIds) {
+        this.offsetIds = offsetIds;
+    }
+
+    static void setTag(Game game, ByteBuffer buffer, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Event")) {
+            return;
+        }
+        if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "WhiteElo")) {
+            game.setWhiteElo(PgnTokenizer.parseInt(buffer, valueStart, valueEnd, game.getWhiteElo()));
+            return;
+        }
+        if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "BlackElo")) {
+            game.setBlackElo(PgnTokenizer.parseInt(buffer, valueStart, valueEnd, game.getBlackElo()));
+            return;
+        }
+        String value = PgnTokenizer.decode(buffer, valueStart, valueEnd);
+        if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "White")) {
+            game.setWhitePlayer(value);
+        } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Black")) {
+            game.setBlackPlayer(value);
+        } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Date")) {
+            game.setDate(value);
+        } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Result")) {
+            GameResult result = GameResult.fromNotation(value);
+            game.setResult(result);
+        } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "ECO")) {
+            game.setEco(value);
+        } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "PlyCount")) {
+            game.setPlyCount(value);
+        } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "FEN")) {
+            game.setFen(value);
+        } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Opening")) {
+            game.setOpening(value);
+        } else {
+            if (game.getProperty() == null) {
+                game.setProperty(new HashMap<String, String>());
+            }
+            game.getProperty().put(PgnTokenizer.decode(buffer, nameStart, nameEnd), value);
+        }
+    }
+
+    /*
+     * one trimmed line per source line, blank lines dropped. The range is
+     * bulk copied and normalized in place, then decoded in one go
+     */
+    StringBuilder decodeMoveText(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (scratch.length < length + 1) {
+            scratch = new byte[Math.max(length + 1, scratch.length * 2)];
+        }
+        ByteBuffer source = buffer.duplicate();
+        // through Buffer, the ByteBuffer overloads are missing on Java 8
+        ((Buffer) source).limit(end);
+        ((Buffer) source).position(start);
+        source.get(scratch, 0, length);
+
+        final byte bytes[] = scratch;
+        int n = 0;
+        int i = 0;
+        while (i < length) {
+            int lineEnd = i;
+            while (lineEnd < length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int s = i;
+            int e = lineEnd;
+            while (s < e && (bytes[s] & 0xFF) <= ' ') {
+                s++;
+            }
+            while (e > s && (bytes[e - 1] & 0xFF) <= ' ') {
+                e--;
+            }
+            if (s < e) {
+                System.arraycopy(bytes, s, bytes, n, e - s);
+                n += e - s;
+                bytes[n++] = '\n';
+            }
+            i = lineEnd + 1;
+        }
+        return new StringBuilder(new String(bytes, 0, n, PgnTokenizer.UTF8));
+    }
+
+    static void setMoveText(Game game, StringBuilder moveText, boolean lazyLoad) throws Exception {
+
+        //clear game result
+        StringUtil.replaceAll(moveText, "1-0", "");
+        StringUtil.replaceAll(moveText, "0-1", "");
+        StringUtil.replaceAll(moveText, "1/2-1/2", "");
+        StringUtil.replaceAll(moveText, "*", "");
+
+        game.setMoveText(moveText);
+        if (!lazyLoad) {
+            game.loadMoveText();
+        }
+        game.setPlyCount(game.getHalfMoves().size() + "");
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import com.github.bhlangonijr.chesslib.game.Game;
+
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-threaded counterpart of {@link PgnHolder#loadPgn()}.
+ * <p>
+ * The file is split into chunks of roughly {@link #getChunkSize()} bytes,
+ * each cut at an <code>[Event </code> tag, and the chunks are parsed by a
+ * pool of worker threads. With lazy load off the movetext is also replayed
+ * on the workers. Listeners are always notified from the thread calling
+ * {@link #loadPgn()}, so they don't need to be thread-safe:
+ * <ul>
+ * <li>ordered (default), games arrive in file order, finished chunks wait
+ * for their predecessors</li>
+ * <li>unordered, games arrive chunk by chunk as soon as a chunk is parsed</li>
+ * </ul>
+ * At most {@link #getMaxPendingChunks()} chunks are parsed or waiting at
+ * any time, which bounds the memory held by the reorder buffer.
+ * <p>
+ * The game id is the byte offset of the game in the file, as with
+ * {@link PgnHolder#stream()}, so it is the same in both modes and whatever
+ * the filter.
+ */
+public class ParallelPgnLoader {
+
+    /**
+     * Default chunk size, 8MB
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    private final List<PGNLoadListener> listener = new ArrayList<PGNLoadListener>();
+    private final String fileName;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxPendingChunks;
+    private boolean ordered = true;
+    private boolean lazyLoad = true;
+    private PgnFilter filter;
+    private volatile int size;
+    private volatile int pendingChunks;
+    private long startTime;
+    private long endTime;
+
+    public ParallelPgnLoader(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Parse the file and notify the listeners of each game
+     *
+     * @throws Exception
+     */
+    public void loadPgn() throws Exception {
+        size = 0;
+        startTime = System.currentTimeMillis();
+        endTime = 0L;
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new LoaderThreadFactory());
+        try {
+            FileChannel channel = file.getChannel();
+            long length = file.length();
+            int pending = getMaxPendingChunks();
+            CompletionService<List<Game>> completion = new ExecutorCompletionService<List<Game>>(executor);
+            LinkedList<Future<List<Game>>> inFlight = new LinkedList<Future<List<Game>>>();
+            int outstanding = 0;
+            long position = 0L;
+            while (position < length || outstanding > 0) {
+                while (position < length && outstanding < pending) {
+                    long end = PgnTokenizer.nextGameStart(channel, position + chunkSize, length);
+                    ChunkTask task = new ChunkTask(channel, position, end);
+                    if (ordered) {
+                        inFlight.add(executor.submit(task));
+                    } else {
+                        completion.submit(task);
+                    }
+                    outstanding++;
+                    pendingChunks = outstanding;
+                    position = end;
+                }
+                Future<List<Game>> done = ordered ? inFlight.removeFirst() : completion.take();
+                outstanding--;
+                pendingChunks = outstanding;
+                deliver(result(done));
+            }
+        } finally {
+            pendingChunks = 0;
+            endTime = System.currentTimeMillis();
+            executor.shutdownNow();
+            file.close();
+        }
+    }
+
+    private void deliver(List<Game> games) throws Exception {
+        for (Game game : games) {
+            size++;
+            for (PGNLoadListener l : getListener()) {
+                l.notifyProgress(game);
+            }
+            if (game.getBoard() != null) {
+                game.getBoard().clear();
+            }
+        }
+    }
+
+    private static List<Game> result(Future<List<Game>> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PgnException) {
+                throw (PgnException) e.getCause();
+            }
+            throw new PgnException("Error parsing PGN", e.getCause());
+        }
+    }
+
+    private class ChunkTask implements Callable<List<Game>> {
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        ChunkTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public List<Game> call() throws Exception {
+            final List<Game> games = new ArrayList<Game>();
+            GameBuilder builder = new GameBuilder(new PGNLoadListener() {
+                @Override
+                public void notifyProgress(Game game) {
+                    games.add(game);
+                }
+            }, lazyLoad);
+            builder.setOffsetIds(true);
+            new PgnTokenizer(filter != null ? filter.handler(builder) : builder).tokenize(channel, start, end);
+            return games;
+        }
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "pgn-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return number of games delivered by the last load
+     */
+    public Integer getSize() {
+        return size;
+    }
+
+    /**
+     * @return chunks being parsed or waiting to be delivered
+     */
+    public int getPendingChunks() {
+        return pendingChunks;
+    }
+
+    /**
+     * @return games delivered per second since the load started
+     */
+    public float getThroughput() {
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        return size * 1000f / Math.max(1, end - startTime);
+    }
+
+    public List<PGNLoadListener> getListener() {
+        return listener;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism number of worker threads
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize approximate size of the chunks in bytes
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return bound on the chunks being parsed or waiting to be delivered,
+     * 4 per worker unless set
+     */
+    public int getMaxPendingChunks() {
+        return maxPendingChunks > 0 ? maxPendingChunks : parallelism * 4;
+    }
+
+    public void setMaxPendingChunks(int maxPendingChunks) {
+        this.maxPendingChunks = maxPendingChunks;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @param ordered deliver the games in file order, otherwise as chunks finish
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public PgnFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter header filter applied by the workers, the other games
+     *               are skipped without being built
+     */
+    public void setFilter(PgnFilter filter) {
+        this.filter = filter;
+    }
+
+    public boolean isLazyLoad() {
+        return lazyLoad;
+    }
+
+    /**
+     * @param lazyLoad leave the movetext unparsed, otherwise it is replayed on the workers
+     */
+    public void setLazyLoad(boolean lazyLoad) {
+        this.lazyLoad = lazyLoad;
+    }
+}
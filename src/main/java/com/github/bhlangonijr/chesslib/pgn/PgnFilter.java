@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Header predicate pushed down into the PGN tokenizer.
+ * <p>
+ * Conditions are checked on the raw tag bytes as the tags are scanned. A
+ * game must satisfy every condition, a missing tag fails its conditions.
+ * The tags of a game are held back as byte ranges until its header is
+ * complete, so a rejected game creates no objects and its movetext is
+ * skipped without being buffered or decoded.
+ * <pre>
+ * PgnFilter filter = new PgnFilter()
+ *         .eco("B1", "D1")
+ *         .elo(2200, 3000)
+ *         .date("2000", "2010.06")
+ *         .tag("Result", "1-0", "0-1", "1/2-1/2");
+ * </pre>
+ */
+public class PgnFilter {
+
+    private final List<Condition> conditions = new ArrayList<Condition>();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private boolean headersOnly;
+
+    /**
+     * Accept games whose tag equals one of the values
+     *
+     * @param name
+     * @param values
+     * @return this filter
+     */
+    public PgnFilter tag(String name, String... values) {
+        conditions.add(new ValueCondition(name, values, false));
+        return this;
+    }
+
+    /**
+     * Accept games whose ECO starts with one of the prefixes
+     *
+     * @param prefixes
+     * @return this filter
+     */
+    public PgnFilter eco(String... prefixes) {
+        conditions.add(new ValueCondition("ECO", prefixes, true));
+        return this;
+    }
+
+    /**
+     * Accept games where both players are rated within the range, inclusive
+     *
+     * @param min
+     * @param max
+     * @return this filter
+     */
+    public PgnFilter elo(int min, int max) {
+        conditions.add(new RangeCondition("WhiteElo", min, max));
+        conditions.add(new RangeCondition("BlackElo", min, max));
+        return this;
+    }
+
+    /**
+     * Accept games played within the range, inclusive. Bounds are compared
+     * on their length, so "2010" covers the whole year; unknown parts of a
+     * date (2010.??.??) match any value
+     *
+     * @param from first date, null for no lower bound
+     * @param to   last date, null for no upper bound
+     * @return this filter
+     */
+    public PgnFilter date(String from, String to) {
+        conditions.add(new DateCondition(from, to));
+        return this;
+    }
+
+    /**
+     * @param headersOnly skip the movetext of accepted games as well
+     * @return this filter
+     */
+    public PgnFilter headersOnly(boolean headersOnly) {
+        this.headersOnly = headersOnly;
+        return this;
+    }
+
+    public boolean isHeadersOnly() {
+        return headersOnly;
+    }
+
+    /**
+     * Wrap a handler so it only sees the games accepted by this filter
+     *
+     * @param delegate
+     * @return the filtering handler
+     */
+    public PgnTokenHandler handler(PgnTokenHandler delegate) {
+        return new FilteredTokenHandler(this, delegate);
+    }
+
+    /**
+     * @return number of games whose header was scanned
+     */
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    /**
+     * @return number of games accepted
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    int size() {
+        return conditions.size();
+    }
+
+    /*
+     * check a tag against the conditions on it, false if one fails
+     */
+    boolean test(boolean matched[], ByteBuffer buffer, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition condition = conditions.get(i);
+            if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, condition.name)) {
+                if (!condition.test(buffer, valueStart, valueEnd)) {
+                    return false;
+                }
+                matched[i] = true;
+            }
+        }
+        return true;
+    }
+
+    boolean accept(boolean rejected, boolean matched[]) {
+        scanned.incrementAndGet();
+        if (rejected) {
+            return false;
+        }
+        for (boolean m : matched) {
+            if (!m) {
+                return false;
+            }
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    private abstract static class Condition {
+
+        final String name;
+
+        Condition(String name) {
+            this.name = name;
+        }
+
+        abstract boolean test(ByteBuffer buffer, int start, int end);
+    }
+
+    private static class ValueCondition extends Condition {
+
+        private final String values[];
+        private final boolean prefix;
+
+        ValueCondition(String name, String values[], boolean prefix) {
+            super(name);
+            this.values = values;
+            this.prefix = prefix;
+        }
+
+        @Override
+        boolean test(ByteBuffer buffer, int start, int end) {
+            for (String value : values) {
+                if ((prefix || end - start == value.length()) &&
+                        PgnTokenizer.startsWith(buffer, start, end, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class RangeCondition extends Condition {
+
+        private final int min;
+        private final int max;
+
+        RangeCondition(String name, int min, int max) {
+            super(name);
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        boolean test(ByteBuffer buffer, int start, int end) {
+            int value = PgnTokenizer.parseInt(buffer, start, end, Integer.MIN_VALUE);
+            return value >= min && value <= max;
+        }
+    }
+
+    private static class DateCondition extends Condition {
+
+        private final String from;
+        private final String to;
+
+        DateCondition(String from, String to) {
+            super("Date");
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        boolean test(ByteBuffer buffer, int start, int end) {
+            // unknown digits read as 9 against the lower bound and 0 against the upper one
+            return (from == null || compare(buffer, start, end, from, '9') >= 0) &&
+                    (to == null || compare(buffer, start, end, to, '0') <= 0);
+        }
+
+        private static int compare(ByteBuffer buffer, int start, int end, String bound, char unknown) {
+            for (int i = 0; i < bound.length(); i++) {
+                if (start + i >= end) {
+                    return -1;
+                }
+                int c = buffer.get(start + i);
+                if (c == '?') {
+                    c = unknown;
+                }
+                if (c != bound.charAt(i)) {
+                    return c - bound.charAt(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import com.github.bhlangonijr.chesslib.game.Game;
+import com.github.bhlangonijr.chesslib.game.GameResult;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sidecar index of a PGN file, for random access to its games.
+ * <p>
+ * Built once in a single header-only pass, the index is stored next to the
+ * PGN as <code>file.pgn.idx</code> and memory-mapped when opened. It holds
+ * one fixed-size record per game, so both the lookup of a game by number
+ * and header-level queries are plain array reads that don't touch the PGN:
+ * <pre>
+ * header   magic, version, game count, PGN length and modification time,
+ *          offset of the string table
+ * records  32 bytes per game: PGN offset (8), length (4), white and black
+ *          Elo (2 + 2), result (1), ECO (3), white and black player (4 + 4)
+ *          as string table offsets, date as yyyymmdd (4)
+ * strings  player names, each stored once as a length-prefixed UTF-8 string
+ * </pre>
+ * The PGN length and modification time are checked on open, a stale index
+ * is rebuilt by {@link #load(String)}. The index is mapped as a single
+ * buffer, so it is limited to 2GB, about 67M games: larger PGN files are
+ * rejected by {@link #build(String)}.
+ */
+public class PgnIndex implements Closeable {
+
+    public static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x50474E49; // PGNI
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 36;
+    private static final int RECORD_SIZE = 32;
+    private static final long MAX_INDEX_SIZE = Integer.MAX_VALUE;
+
+    private static final int OFFSET = 0;
+    private static final int LENGTH = 8;
+    private static final int WHITE_ELO = 12;
+    private static final int BLACK_ELO = 14;
+    private static final int RESULT = 16;
+    private static final int ECO = 17;
+    private static final int WHITE = 20;
+    private static final int BLACK = 24;
+    private static final int DATE = 28;
+
+    private static final GameResult results[] = GameResult.values();
+
+    private final String pgnFileName;
+    private final MappedByteBuffer index;
+    private final int size;
+    private final int strings;
+    private RandomAccessFile pgn;
+
+    private PgnIndex(String pgnFileName, MappedByteBuffer index) throws IOException {
+        this.pgnFileName = pgnFileName;
+        this.index = index;
+        if (index.capacity() < HEADER_SIZE || index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw new IOException("Not a PGN index: " + indexFileName(pgnFileName));
+        }
+        long size = index.getInt(8);
+        long strings = index.getLong(28);
+        if (size < 0 || strings != HEADER_SIZE + size * RECORD_SIZE || strings > index.capacity()) {
+            throw new IOException("Corrupt PGN index: " + indexFileName(pgnFileName));
+        }
+        this.size = (int) size;
+        this.strings = (int) strings;
+    }
+
+    /**
+     * Open the index of a PGN file, building it first if it is missing or stale
+     *
+     * @param pgnFileName
+     * @return the index
+     * @throws Exception
+     */
+    public static PgnIndex load(String pgnFileName) throws Exception {
+        if (!isUpToDate(pgnFileName)) {
+            build(pgnFileName);
+        }
+        return open(pgnFileName);
+    }
+
+    /**
+     * Open an existing index
+     *
+     * @param pgnFileName
+     * @return the index
+     * @throws IOException if the index is missing, invalid or stale
+     */
+    public static PgnIndex open(String pgnFileName) throws IOException {
+        if (!isUpToDate(pgnFileName)) {
+            throw new IOException("Missing or stale PGN index: " + indexFileName(pgnFileName));
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFileName(pgnFileName), "r");
+        try {
+            return new PgnIndex(pgnFileName, file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, file.length()));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @param pgnFileName
+     * @return true if the index exists and matches the PGN length and modification time
+     */
+    public static boolean isUpToDate(String pgnFileName) throws IOException {
+        File pgnFile = new File(pgnFileName);
+        File indexFile = new File(indexFileName(pgnFileName));
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            return file.readInt() == MAGIC && file.readInt() == VERSION &&
+                    file.readInt() >= 0 &&
+                    file.readLong() == pgnFile.length() &&
+                    file.readLong() == pgnFile.lastModified();
+        } finally {
+            file.close();
+        }
+    }
+
+    public static String indexFileName(String pgnFileName) {
+        return pgnFileName + SUFFIX;
+    }
+
+    /**
+     * Scan the PGN headers and write its index
+     *
+     * @param pgnFileName
+     * @return number of games indexed
+     * @throws PgnException if the index would not fit in 2GB
+     * @throws Exception
+     */
+    public static int build(String pgnFileName) throws Exception {
+        File pgnFile = new File(pgnFileName);
+        long pgnLength = pgnFile.length();
+        long pgnModified = pgnFile.lastModified();
+        String indexFileName = indexFileName(pgnFileName);
+
+        Builder builder;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFileName), 1 << 16));
+        boolean done = false;
+        try {
+            out.write(new byte[HEADER_SIZE]);
+            builder = new Builder(out);
+            new PgnTokenizer(builder).tokenize(pgnFileName);
+            if (HEADER_SIZE + (long) builder.count * RECORD_SIZE + builder.strings.size() > MAX_INDEX_SIZE) {
+                throw new PgnException("PGN too large to be indexed, the index would exceed 2GB: " + pgnFileName);
+            }
+            builder.strings.writeTo(out);
+            done = true;
+        } finally {
+            out.close();
+            if (!done) {
+                new File(indexFileName).delete();
+            }
+        }
+
+        RandomAccessFile file = new RandomAccessFile(indexFileName, "rw");
+        try {
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeInt(builder.count);
+            file.writeLong(pgnLength);
+            file.writeLong(pgnModified);
+            file.writeLong(HEADER_SIZE + (long) builder.count * RECORD_SIZE);
+        } finally {
+            file.close();
+        }
+        return builder.count;
+    }
+
+    /*
+     * header-only pass writing one record per game
+     */
+    private static class Builder implements PgnTokenHandler {
+
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        private final Map<String, Integer> stringOffsets = new HashMap<String, Integer>();
+        private final byte eco[] = new byte[3];
+        private int count;
+        private long offset;
+        private int whiteElo;
+        private int blackElo;
+        private int result;
+        private int white;
+        private int black;
+        private int date;
+
+        Builder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startGame(long offset) {
+            this.offset = offset;
+            whiteElo = 0;
+            blackElo = 0;
+            result = -1;
+            white = string("");
+            black = white;
+            date = 0;
+            Arrays.fill(eco, (byte) 0);
+        }
+
+        @Override
+        public void tag(ByteBuffer buffer, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+            if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "White")) {
+                white = string(PgnTokenizer.decode(buffer, valueStart, valueEnd));
+            } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Black")) {
+                black = string(PgnTokenizer.decode(buffer, valueStart, valueEnd));
+            } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "WhiteElo")) {
+                whiteElo = PgnTokenizer.parseInt(buffer, valueStart, valueEnd, 0);
+            } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "BlackElo")) {
+                blackElo = PgnTokenizer.parseInt(buffer, valueStart, valueEnd, 0);
+            } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Result")) {
+                GameResult r = GameResult.fromNotation(PgnTokenizer.decode(buffer, valueStart, valueEnd));
+                result = r == null ? -1 : r.ordinal();
+            } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "ECO")) {
+                for (int i = 0; i < eco.length; i++) {
+                    eco[i] = valueStart + i < valueEnd ? buffer.get(valueStart + i) : 0;
+                }
+            } else if (PgnTokenizer.equalsIgnoreCase(buffer, nameStart, nameEnd, "Date")) {
+                date = parseDate(buffer, valueStart, valueEnd);
+            }
+        }
+
+        @Override
+        public boolean endTags() {
+            return false;
+        }
+
+        @Override
+        public void moveText(ByteBuffer buffer, int start, int end) {
+        }
+
+        @Override
+        public void endGame(long end) throws IOException, PgnException {
+            if (HEADER_SIZE + (long) (count + 1) * RECORD_SIZE > MAX_INDEX_SIZE) {
+                throw new PgnException("PGN too large to be indexed, more than " + count + " games");
+            }
+            out.writeLong(offset);
+            out.writeInt((int) Math.min(Integer.MAX_VALUE, end - offset));
+            out.writeShort(Math.min(whiteElo, Short.MAX_VALUE));
+            out.writeShort(Math.min(blackElo, Short.MAX_VALUE));
+            out.writeByte(result);
+            out.write(eco);
+            out.writeInt(white);
+            out.writeInt(black);
+            out.writeInt(date);
+            count++;
+        }
+
+        private int string(String s) {
+            Integer offset = stringOffsets.get(s);
+            if (offset == null) {
+                offset = strings.size();
+                byte bytes[] = s.getBytes(PgnTokenizer.UTF8);
+                int length = Math.min(bytes.length, 0xFFFF);
+                strings.write(length >>> 8);
+                strings.write(length);
+                strings.write(bytes, 0, length);
+                stringOffsets.put(s, offset);
+            }
+            return offset;
+        }
+    }
+
+    /*
+     * yyyy.mm.dd to yyyymmdd, unknown parts as 0
+     */
+    static int parseDate(ByteBuffer buffer, int start, int end) {
+        return datePart(buffer, start, end, 0, 4) * 10000 +
+                datePart(buffer, start, end, 5, 2) * 100 +
+                datePart(buffer, start, end, 8, 2);
+    }
+
+    private static int datePart(ByteBuffer buffer, int start, int end, int from, int length) {
+        if (start + from + length > end) {
+            return 0;
+        }
+        int value = 0;
+        for (int i = start + from; i < start + from + length; i++) {
+            int d = buffer.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return 0;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * Read a game from the PGN
+     *
+     * @param game     game number, from 0
+     * @param lazyLoad leave the movetext unparsed
+     * @return the game, its id being its number
+     * @throws Exception
+     */
+    public Game getGame(int game, boolean lazyLoad) throws Exception {
+        if (pgn == null) {
+            pgn = new RandomAccessFile(pgnFileName, "r");
+        }
+        final Game result[] = new Game[1];
+        GameBuilder builder = new GameBuilder(new PGNLoadListener() {
+            @Override
+            public void notifyProgress(Game g) {
+                if (result[0] == null) {
+                    result[0] = g;
+                }
+            }
+        }, lazyLoad);
+        long offset = getOffset(game);
+        ByteBuffer buffer = pgn.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, getLength(game));
+        new PgnTokenizer(builder).tokenize(buffer, offset);
+        if (result[0] != null) {
+            result[0].setGameId(String.valueOf(game));
+        }
+        return result[0];
+    }
+
+    /**
+     * Header-level query over the index
+     */
+    public interface Query {
+
+        boolean matches(PgnIndex index, int game);
+    }
+
+    /**
+     * @param query
+     * @return the numbers of the games matching the query, in file order
+     */
+    public int[] select(Query query) {
+        int found[] = new int[16];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (query.matches(this, i)) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = i;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private int record(int game) {
+        if (game < 0 || game >= size) {
+            throw new IndexOutOfBoundsException("Game " + game + " of " + size);
+        }
+        return HEADER_SIZE + game * RECORD_SIZE;
+    }
+
+    /**
+     * @return number of games in the PGN
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getOffset(int game) {
+        return index.getLong(record(game) + OFFSET);
+    }
+
+    public int getLength(int game) {
+        return index.getInt(record(game) + LENGTH);
+    }
+
+    public int getWhiteElo(int game) {
+        return index.getShort(record(game) + WHITE_ELO);
+    }
+
+    public int getBlackElo(int game) {
+        return index.getShort(record(game) + BLACK_ELO);
+    }
+
+    /**
+     * @param game
+     * @return the result, or null if the tag is missing or invalid
+     */
+    public GameResult getResult(int game) {
+        int result = index.get(record(game) + RESULT);
+        return result < 0 ? null : results[result];
+    }
+
+    /**
+     * Compare the ECO of a game with a prefix without creating a String
+     *
+     * @param game
+     * @param prefix
+     * @return
+     */
+    public boolean isEco(int game, String prefix) {
+        int r = record(game) + ECO;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (i >= 3 || index.get(r + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getEco(int game) {
+        int r = record(game) + ECO;
+        StringBuilder eco = new StringBuilder(3);
+        for (int i = 0; i < 3 && index.get(r + i) != 0; i++) {
+            eco.append((char) index.get(r + i));
+        }
+        return eco.toString();
+    }
+
+    public String getWhitePlayer(int game) {
+        return string(index.getInt(record(game) + WHITE));
+    }
+
+    public String getBlackPlayer(int game) {
+        return string(index.getInt(record(game) + BLACK));
+    }
+
+    /**
+     * @param game
+     * @return the date as yyyymmdd, unknown parts as 0
+     */
+    public int getDate(int game) {
+        return index.getInt(record(game) + DATE);
+    }
+
+    private String string(int offset) {
+        int position = strings + offset;
+        byte bytes[] = new byte[index.getShort(position) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = index.get(position + 2 + i);
+        }
+        return new String(bytes, PgnTokenizer.UTF8);
+    }
+
+    public String getPgnFileName() {
+        return pgnFileName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pgn != null) {
+            pgn.close();
+            pgn = null;
+        }
+    }
+
+    public static void main(String args[]) throws Exception {
+        for (String fileName : args) {
+            long start = System.currentTimeMillis();
+            int count = build(fileName);
+            System.out.println(indexFileName(fileName) + ": " + count + " games in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import com.github.bhlangonijr.chesslib.game.Game;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Lazy, splittable source of the games of a PGN file region.
+ * <p>
+ * Each advance maps the file ahead as needed, finds the next
+ * <code>[Event </code> tag and tokenizes that one game only, so a
+ * short-circuiting stream stops reading the file early. A split cuts the
+ * remaining region at the first game past its middle, letting parallel
+ * streams parse disjoint regions of the file.
+ * <p>
+ * Since a split part doesn't know how many games precede it, the id of
+ * each game is its byte offset in the file.
+ */
+public class PgnSpliterator implements Spliterator<Game> {
+
+    /**
+     * Regions smaller than this are not split, 1MB
+     */
+    public static final long MIN_SPLIT = 1 << 20;
+
+    private static final int WINDOW = 64 << 20;
+    private static final int AVERAGE_GAME_SIZE = 1024;
+
+    private final FileChannel channel;
+    private final boolean lazyLoad;
+    private final PgnFilter filter;
+    private final ArrayDeque<Game> games = new ArrayDeque<Game>();
+    private final PgnTokenizer tokenizer;
+    private long position;
+    private long end;
+    private MappedByteBuffer buffer;
+    private long bufferStart;
+    private long bufferEnd;
+
+    /**
+     * @param channel
+     * @param start    offset of a game, or of the start of the file
+     * @param end
+     * @param lazyLoad leave the movetext unparsed
+     */
+    public PgnSpliterator(FileChannel channel, long start, long end, boolean lazyLoad) {
+        this(channel, start, end, lazyLoad, null);
+    }
+
+    /**
+     * @param channel
+     * @param start    offset of a game, or of the start of the file
+     * @param end
+     * @param lazyLoad leave the movetext unparsed
+     * @param filter   header filter, may be null
+     */
+    public PgnSpliterator(FileChannel channel, long start, long end, boolean lazyLoad, PgnFilter filter) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+        this.lazyLoad = lazyLoad;
+        this.filter = filter;
+        GameBuilder builder = new GameBuilder(new PGNLoadListener() {
+            @Override
+            public void notifyProgress(Game game) {
+                games.add(game);
+            }
+        }, lazyLoad);
+        builder.setOffsetIds(true);
+        this.tokenizer = new PgnTokenizer(filter != null ? filter.handler(builder) : builder);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Game> action) {
+        while (games.isEmpty() && position < end) {
+            try {
+                parseNextGame();
+            } catch (Exception e) {
+                throw new IllegalStateException(new PgnException("Error parsing PGN at offset " + position, e));
+            }
+        }
+        if (games.isEmpty()) {
+            return false;
+        }
+        action.accept(games.poll());
+        return true;
+    }
+
+    /*
+     * tokenize from the position up to the next game start
+     */
+    private void parseNextGame() throws Exception {
+        int size = WINDOW;
+        if (buffer == null || position >= bufferEnd) {
+            map(size);
+        }
+        while (true) {
+            int index = PgnTokenizer.nextGameStart(buffer, (int) (position - bufferStart) + 1,
+                    (int) (bufferEnd - bufferStart));
+            if (index >= 0 || bufferEnd == end) {
+                long next = index >= 0 ? bufferStart + index : end;
+                // through Buffer, the MappedByteBuffer overloads are missing on Java 8
+                ((Buffer) buffer).limit((int) (next - bufferStart));
+                ((Buffer) buffer).position((int) (position - bufferStart));
+                try {
+                    tokenizer.tokenize(buffer, bufferStart);
+                } finally {
+                    ((Buffer) buffer).limit(buffer.capacity());
+                }
+                position = next;
+                return;
+            }
+            // the game doesn't fit in what is left of the window
+            if (bufferStart == position) {
+                size = (int) Math.min(Integer.MAX_VALUE, size * 2L);
+            }
+            map(size);
+        }
+    }
+
+    private void map(int size) throws IOException {
+        long length = Math.min(size, end - position);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        bufferStart = position;
+        bufferEnd = position + length;
+    }
+
+    @Override
+    public Spliterator<Game> trySplit() {
+        if (!games.isEmpty() || end - position < MIN_SPLIT * 2) {
+            return null;
+        }
+        long middle;
+        try {
+            middle = PgnTokenizer.nextGameStart(channel, position + (end - position) / 2, end);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (middle >= end) {
+            return null;
+        }
+        PgnSpliterator prefix = new PgnSpliterator(channel, position, middle, lazyLoad, filter);
+        position = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return (end - position) / AVERAGE_GAME_SIZE + games.size();
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
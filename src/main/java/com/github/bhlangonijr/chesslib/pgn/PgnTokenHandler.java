@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the tokens found by {@link PgnTokenizer}.
+ * <p>
+ * Tags and movetext are handed over as byte ranges of the scanned buffer,
+ * absolute indexes into it, valid only for the duration of the call. Use
+ * the static helpers of {@link PgnTokenizer} to compare or decode them.
+ * The buffer itself stays the same until the end of the game.
+ */
+public interface PgnTokenHandler {
+
+    /**
+     * @param offset file offset of the first byte of the game
+     */
+    void startGame(long offset) throws Exception;
+
+    /**
+     * A tag pair, the value range excludes the quotes and is still escaped
+     */
+    void tag(ByteBuffer buffer, int nameStart, int nameEnd, int valueStart, int valueEnd) throws Exception;
+
+    /**
+     * Called once per game after its last tag, before any movetext
+     *
+     * @return false to skip the movetext of the game
+     */
+    boolean endTags() throws Exception;
+
+    /**
+     * The movetext of the game, from its first to its last non-blank byte
+     */
+    void moveText(ByteBuffer buffer, int start, int end) throws Exception;
+
+    /**
+     * @param offset file offset after the last byte of the game
+     */
+    void endGame(long offset) throws Exception;
+
+}
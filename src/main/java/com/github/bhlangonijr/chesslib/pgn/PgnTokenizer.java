@@ -0,0 +1,449 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Byte-level PGN scanner.
+ * <p>
+ * The file is memory-mapped and scanned once by a small state machine that
+ * reports tag pairs and movetext ranges to a {@link PgnTokenHandler},
+ * without creating a String per line or per token. Files larger than the
+ * mapping window are mapped window by window, each window cut at the last
+ * <code>[Event </code> tag starting a line, so games never straddle two
+ * windows.
+ * <p>
+ * A game starts at its first tag. A tag following movetext, or an Event
+ * tag, starts a new game. Brace and semicolon comments are skipped as a
+ * whole, so brackets inside them don't end the movetext. When the handler
+ * declines the movetext of a game at {@link PgnTokenHandler#endTags()},
+ * the scanner only looks for the next tag.
+ */
+public class PgnTokenizer {
+
+    /**
+     * Default size of the mapped window, 1GB
+     */
+    public static final int DEFAULT_WINDOW = 1 << 30;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte EVENT_TAG[] = {'[', 'E', 'v', 'e', 'n', 't', ' '};
+    private static final int BOUNDARY_SCAN = 64 << 10;
+
+    private final PgnTokenHandler handler;
+    private int window = DEFAULT_WINDOW;
+
+    public PgnTokenizer(PgnTokenHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Scan a whole PGN file
+     *
+     * @param fileName
+     * @throws Exception
+     */
+    public void tokenize(String fileName) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            tokenize(file.getChannel(), 0L, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Scan the games of a region of a file. The region must start at a
+     * game, or at the start of the file
+     *
+     * @param channel
+     * @param start
+     * @param end
+     * @throws Exception
+     */
+    public void tokenize(FileChannel channel, long start, long end) throws Exception {
+        long position = start;
+        int size = window;
+        while (position < end) {
+            long length = Math.min(size, end - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int limit = (int) length;
+            if (position + length < end) {
+                int cut = lastGameStart(buffer, 1, limit);
+                if (cut < 0) {
+                    // a single game larger than the window
+                    if (size == Integer.MAX_VALUE) {
+                        throw new PgnException("Game too large to be mapped at offset " + position);
+                    }
+                    size = (int) Math.min(Integer.MAX_VALUE, size * 2L);
+                    continue;
+                }
+                limit = cut;
+            }
+            // through Buffer, the MappedByteBuffer overload is missing on Java 8
+            ((Buffer) buffer).limit(limit);
+            tokenize(buffer, position);
+            position += limit;
+        }
+    }
+
+    /**
+     * Scan the games between the position and the limit of the buffer
+     *
+     * @param buffer
+     * @param baseOffset file offset of index 0 of the buffer
+     * @throws Exception
+     */
+    public void tokenize(ByteBuffer buffer, long baseOffset) throws Exception {
+        final int end = buffer.limit();
+        int i = buffer.position();
+        boolean inGame = false;
+        boolean inMoveText = false;
+        boolean skipText = false;
+        int textStart = 0;
+        int textEnd = 0;
+
+        while (i < end) {
+            int b = buffer.get(i) & 0xFF;
+            if (b <= ' ') {
+                i++;
+                continue;
+            }
+            if (b == 0xEF && isByteOrderMark(buffer, i, end)) {
+                // also found mid-file in concatenated files
+                i += 3;
+                continue;
+            }
+            if (b == '[') {
+                int nameStart = i + 1;
+                int j = nameStart;
+                while (j < end && !isTagDelimiter(buffer.get(j))) {
+                    j++;
+                }
+                int nameEnd = j;
+                while (j < end && isBlank(buffer.get(j))) {
+                    j++;
+                }
+                int valueStart = j;
+                int valueEnd = j;
+                if (j < end && buffer.get(j) == '"') {
+                    valueStart = ++j;
+                    while (j < end && buffer.get(j) != '"' && buffer.get(j) != '\n') {
+                        j += buffer.get(j) == '\\' ? 2 : 1;
+                    }
+                    valueEnd = Math.min(j, end);
+                }
+                while (j < end && buffer.get(j) != ']' && buffer.get(j) != '\n') {
+                    j++;
+                }
+                if (j < end && buffer.get(j) == ']') {
+                    j++;
+                }
+                if (!inGame || inMoveText || equalsIgnoreCase(buffer, nameStart, nameEnd, "Event")) {
+                    if (inGame) {
+                        endGame(buffer, inMoveText, skipText, textStart, textEnd, baseOffset + i);
+                    }
+                    handler.startGame(baseOffset + i);
+                    inGame = true;
+                    inMoveText = false;
+                }
+                handler.tag(buffer, nameStart, nameEnd, valueStart, valueEnd);
+                i = j;
+                continue;
+            }
+            if (!inGame) {
+                handler.startGame(baseOffset + i);
+                inGame = true;
+            }
+            if (!inMoveText) {
+                inMoveText = true;
+                textStart = i;
+                skipText = !handler.endTags();
+                if (skipText) {
+                    i = skipMoveText(buffer, i, end);
+                    continue;
+                }
+            }
+            if (b == '{') {
+                while (i < end && buffer.get(i) != '}') {
+                    i++;
+                }
+                i = Math.min(i + 1, end);
+            } else if (b == ';') {
+                while (i < end && buffer.get(i) != '\n') {
+                    i++;
+                }
+            } else {
+                i++;
+            }
+            textEnd = i;
+        }
+        if (inGame) {
+            endGame(buffer, inMoveText, skipText, textStart, textEnd, baseOffset + end);
+        }
+    }
+
+    private void endGame(ByteBuffer buffer, boolean inMoveText, boolean skipText,
+                         int textStart, int textEnd, long offset) throws Exception {
+        if (!inMoveText) {
+            // a game without movetext
+            handler.endTags();
+        } else if (!skipText) {
+            handler.moveText(buffer, textStart, textEnd);
+        }
+        handler.endGame(offset);
+    }
+
+    /*
+     * jump to the tag starting the next game, stepping over comments
+     */
+    private static int skipMoveText(ByteBuffer buffer, int i, int end) {
+        while (i < end) {
+            byte b = buffer.get(i);
+            if (b == '[') {
+                return i;
+            }
+            if (b == '{') {
+                while (i < end && buffer.get(i) != '}') {
+                    i++;
+                }
+            } else if (b == ';') {
+                while (i < end && buffer.get(i) != '\n') {
+                    i++;
+                }
+            }
+            i++;
+        }
+        return end;
+    }
+
+    private static boolean isByteOrderMark(ByteBuffer buffer, int i, int end) {
+        return i + 2 < end && (buffer.get(i + 1) & 0xFF) == 0xBB && (buffer.get(i + 2) & 0xFF) == 0xBF;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isTagDelimiter(byte b) {
+        return (b & 0xFF) <= ' ' || b == '"' || b == ']';
+    }
+
+    /**
+     * Find the last <code>[Event </code> tag starting a line
+     *
+     * @param buffer
+     * @param from   first index searched
+     * @param to     index after the last byte searched
+     * @return the index of the tag, or -1
+     */
+    public static int lastGameStart(ByteBuffer buffer, int from, int to) {
+        for (int i = to - EVENT_TAG.length; i >= from; i--) {
+            if (isGameStart(buffer, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first <code>[Event </code> tag starting a line
+     *
+     * @param buffer
+     * @param from   first index searched
+     * @param to     index after the last byte searched
+     * @return the index of the tag, or -1
+     */
+    public static int nextGameStart(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i <= to - EVENT_TAG.length; i++) {
+            if (isGameStart(buffer, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first <code>[Event </code> tag starting a line in a file
+     *
+     * @param channel
+     * @param from    first offset searched
+     * @param end     offset after the last byte searched
+     * @return the offset of the tag, or end if there is none
+     * @throws IOException
+     */
+    public static long nextGameStart(FileChannel channel, long from, long end) throws IOException {
+        if (from >= end) {
+            return end;
+        }
+        // start one byte early, so a tag at from is seen at a line start
+        long regionStart = Math.max(from - 1, 0L);
+        int first = from > 0 ? 1 : 0;
+        long size = BOUNDARY_SCAN;
+        while (true) {
+            long regionEnd = Math.min(regionStart + size, end);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    regionStart, regionEnd - regionStart);
+            int index = nextGameStart(buffer, first, buffer.limit());
+            if (index >= 0) {
+                return regionStart + index;
+            }
+            if (regionEnd == end) {
+                return end;
+            }
+            size = Math.min(size * 2, Integer.MAX_VALUE);
+        }
+    }
+
+    private static boolean isGameStart(ByteBuffer buffer, int i) {
+        if (buffer.get(i) != '[' || (i > 0 && buffer.get(i - 1) != '\n' && buffer.get(i - 1) != '\r')) {
+            return false;
+        }
+        for (int k = 1; k < EVENT_TAG.length; k++) {
+            if (buffer.get(i + k) != EVENT_TAG[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a byte range against an ASCII string, ignoring case
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     * @param ascii
+     * @return
+     */
+    public static boolean equalsIgnoreCase(ByteBuffer buffer, int start, int end, String ascii) {
+        if (end - start != ascii.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            int b = buffer.get(i);
+            int c = ascii.charAt(i - start);
+            if (b != c && (b | 0x20) != (c | 0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Does the byte range start with the ASCII prefix
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     * @param prefix
+     * @return
+     */
+    public static boolean startsWith(ByteBuffer buffer, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer.get(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the leading digits of a byte range
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     * @param defaultValue returned when the range doesn't start with a digit
+     * @return
+     */
+    public static int parseInt(ByteBuffer buffer, int start, int end, int defaultValue) {
+        int value = 0;
+        int i = start;
+        while (i < end && i - start < 9) {
+            int d = buffer.get(i) - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            value = value * 10 + d;
+            i++;
+        }
+        return i == start ? defaultValue : value;
+    }
+
+    /**
+     * Decode a byte range as UTF-8, resolving the backslash escapes of tag values
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     * @return
+     */
+    public static String decode(ByteBuffer buffer, int start, int end) {
+        char chars[] = new char[end - start];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            int b = buffer.get(i);
+            if (b < 0) {
+                return decodeUtf8(buffer, start, end);
+            }
+            if (b == '\\' && i + 1 < end) {
+                b = buffer.get(++i);
+            }
+            chars[n++] = (char) b;
+        }
+        return new String(chars, 0, n);
+    }
+
+    private static String decodeUtf8(ByteBuffer buffer, int start, int end) {
+        byte bytes[] = new byte[end - start];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\\' && i + 1 < end) {
+                b = buffer.get(++i);
+            }
+            bytes[n++] = b;
+        }
+        return new String(bytes, 0, n, UTF8);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @param window size of the mapped window in bytes, games must fit in it
+     */
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    public PgnTokenHandler getHandler() {
+        return handler;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.bhlangonijr.chesslib.move;
+
+import com.github.bhlangonijr.chesslib.Board;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Move generation checked against the known perft counts of {@link Perft.Position}
+ */
+public class PerftTest {
+
+    private static final int DEPTH = 3;
+
+    private static Board board(Perft.Position position) {
+        Board board = new Board();
+        board.loadFromFEN(position.getFen());
+        return board;
+    }
+
+    private static int depth(Perft.Position position) {
+        return Math.min(DEPTH, position.getMaxDepth());
+    }
+
+    private static void check(Perft perft) throws MoveGeneratorException {
+        for (Perft.Position position : Perft.Position.values()) {
+            Board board = board(position);
+            String fen = board.getFEN();
+            for (int d = 1; d <= depth(position); d++) {
+                assertEquals(position.name() + " depth " + d, position.getNodes(d), perft.perft(board, d));
+            }
+            assertEquals(position.name() + " board restored", fen, board.getFEN());
+        }
+    }
+
+    @Test
+    public void testBulkCounting() throws MoveGeneratorException {
+        Perft perft = new Perft();
+        perft.setBulkCounting(true);
+        check(perft);
+    }
+
+    @Test
+    public void testMakeEveryLeaf() throws MoveGeneratorException {
+        Perft perft = new Perft();
+        perft.setBulkCounting(false);
+        check(perft);
+    }
+
+    @Test
+    public void testDivide() throws MoveGeneratorException {
+        Perft perft = new Perft();
+        for (Perft.Position position : Perft.Position.values()) {
+            int d = depth(position);
+            Map<Move, Long> divide = perft.divide(board(position), d);
+            long total = 0L;
+            for (long n : divide.values()) {
+                total += n;
+            }
+            assertEquals(position.name() + " root moves", position.getNodes(1), divide.size());
+            assertEquals(position.name() + " depth " + d, position.getNodes(d), total);
+        }
+    }
+
+    @Test
+    public void testParallelPerft() {
+        ParallelPerft perft = new ParallelPerft(2);
+        for (Perft.Position position : Perft.Position.values()) {
+            int d = depth(position);
+            assertEquals(position.name() + " depth " + d, position.getNodes(d), perft.perft(board(position), d));
+        }
+    }
+
+    @Test
+    public void testHasAnyLegalMove() {
+        final AtomicLong positions = new AtomicLong();
+        ParallelPerft.PositionVisitor visitor = new ParallelPerft.PositionVisitor() {
+            private final ThreadLocal<int[]> moves = new ThreadLocal<int[]>() {
+                @Override
+                protected int[] initialValue() {
+                    return new int[MoveGenerator.MAX_MOVES];
+                }
+            };
+
+            @Override
+            public boolean visit(Board board, int ply) {
+                try {
+                    int count = MoveGenerator.getInstance().generateLegalMoves(board, moves.get());
+                    assertEquals(board.getFEN(), count > 0, MoveGenerator.getInstance().hasAnyLegalMove(board));
+                } catch (MoveGeneratorException e) {
+                    throw new IllegalStateException(e);
+                }
+                positions.incrementAndGet();
+                return true;
+            }
+        };
+        ParallelPerft perft = new ParallelPerft(2);
+        for (Perft.Position position : Perft.Position.values()) {
+            perft.walk(board(position), 2, visitor);
+        }
+        assertTrue(positions.get() > 0);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Ben-Hur Carlos Vieira Langoni Junior
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.bhlangonijr.chesslib.pgn;
+
+import com.github.bhlangonijr.chesslib.game.Game;
+import com.github.bhlangonijr.chesslib.game.GameResult;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Games of the bundled PGN files as built by the tokenizer and {@link GameBuilder}
+ */
+public class PgnHolderTest {
+
+    private static final String FILES[] = {
+            "cct131.pgn", "finalmast11.pgn", "linares_2002.pgn", "rav_alternative.pgn", "redqueen.pgn"
+    };
+
+    private static String path(String name) throws Exception {
+        return new File(PgnHolderTest.class.getResource("/" + name).toURI()).getPath();
+    }
+
+    /*
+     * headers, number of half moves and final position of a game
+     */
+    private static String describe(Game game) throws Exception {
+        return game.getWhitePlayer() + "|" + game.getBlackPlayer() + "|" + game.getResult() + "|" +
+                game.getEco() + "|" + game.getDate() + "|" + game.getHalfMoves().size() + "|" +
+                game.getHalfMoves().getFEN();
+    }
+
+    private static List<String> load(String name, PgnFilter filter) throws Exception {
+        final List<String> games = new ArrayList<String>();
+        PgnHolder pgn = new PgnHolder(path(name));
+        pgn.setLazyLoad(false);
+        pgn.setFilter(filter);
+        pgn.getListener().add(new PGNLoadListener() {
+            @Override
+            public void notifyProgress(Game game) throws Exception {
+                games.add(describe(game));
+            }
+        });
+        pgn.loadPgn();
+        assertEquals(name, games.size(), pgn.getSize().intValue());
+        return games;
+    }
+
+    private static void assertGames(String name, int size, String first, String last) throws Exception {
+        List<String> games = load(name, null);
+        assertEquals(name + " games", size, games.size());
+        assertEquals(name + " first game", first, games.get(0));
+        assertEquals(name + " last game", last, games.get(size - 1));
+    }
+
+    @Test
+    public void testCct131() throws Exception {
+        assertGames("cct131.pgn", 3,
+                "Rookie|JabbaChess|WHITE_WON|C00|2011.01.29|67|4k3/r5Qp/5p1B/1p1N4/bp6/8/1P3PP1/3R2K1 w - - 0 67",
+                "JabbaChess|CapivaraLK|WHITE_WON|E62|2011.01.29|64|r4k2/pp1RQ3/8/4pp2/8/6P1/P3PP1P/6K1 b - - 0 64");
+    }
+
+    @Test
+    public void testFinalMasters() throws Exception {
+        assertGames("finalmast11.pgn", 30,
+                "Nakamura,Hi|Ivanchuk,V|DRAW|A40|2011.09.26|56|2r3k1/3r1p1p/1p4p1/8/1R6/P3R1P1/5P1P/6K1 b - - 0 56",
+                "Anand,V|Vallejo Pons,F|WHITE_WON|D10|2011.10.11|77|2r1k3/2n2p2/3P4/p7/P1R5/2p5/2K2P1P/8 w - - 2 77");
+    }
+
+    @Test
+    public void testLinares() throws Exception {
+        assertGames("linares_2002.pgn", 42,
+                "Ponomariov, Ruslan|Ivanchuk, Vassily|WHITE_WON|C18|2002.02.23|89|" +
+                        "5N2/8/2n1P2k/p1Bp4/2p5/p1P2pP1/r6P/4R1K1 w - - 0 89",
+                "Adams, Michael|Ivanchuk, Vassily|DRAW|B42|2002.03.10|91|4R3/4Pk2/7p/8/6K1/8/4r2P/8 w - - 1 91");
+    }
+
+    /**
+     * Variations are skipped, the main line is kept
+     */
+    @Test
+    public void testVariations() throws Exception {
+        String game = "Ponomariov, Ruslan|Ivanchuk, Vassily|WHITE_WON|C18|2002.02.23|89|" +
+                "5N2/8/2n1P2k/p1Bp4/2p5/p1P2pP1/r6P/4R1K1 w - - 0 89";
+        assertGames("rav_alternative.pgn", 1, game, game);
+    }
+
+    /**
+     * The file starts with a UTF-8 byte order mark
+     */
+    @Test
+    public void testRedQueen() throws Exception {
+        assertGames("redqueen.pgn", 270,
+                "RedQueen 1.1.98 64-bit|Amoeba 1.2 64-bit|BLACK_WON|B90|2016.06.08|61|" +
+                        "r1r3k1/q2bbppp/8/3pR1P1/2P2P2/1p6/1PKB3P/4QB1R w - - 0 61",
+                "Tucano 6.00 64-bit|RedQueen 1.1.98 64-bit|BLACK_WON|A04|2016.06.29|81|" +
+                        "8/7p/8/p4k1b/P3p3/Rp1r2P1/2r2P2/1N2R1K1 w - - 0 81");
+    }
+
+    /**
+     * The filter on the raw tags keeps the same games as filtering the built games
+     */
+    @Test
+    public void testFilter() throws Exception {
+        String prefixes[] = {"B9", "C", "D1"};
+        int total = 0;
+        int filtered = 0;
+        for (String name : FILES) {
+            List<String> games = load(name, null);
+            List<String> expected = new ArrayList<String>();
+            for (String game : games) {
+                String tags[] = game.split("\\|");
+                GameResult result = GameResult.valueOf(tags[2]);
+                boolean decisive = result == GameResult.WHITE_WON || result == GameResult.BLACK_WON;
+                boolean eco = false;
+                for (String prefix : prefixes) {
+                    eco |= tags[3].startsWith(prefix);
+                }
+                if (decisive && eco) {
+                    expected.add(game);
+                }
+            }
+            PgnFilter filter = new PgnFilter().eco(prefixes).tag("Result", "1-0", "0-1");
+            assertEquals(name, expected, load(name, filter));
+            assertEquals(name + " scanned", games.size(), filter.getScanned());
+            assertEquals(name + " accepted", expected.size(), filter.getAccepted());
+            total += expected.size();
+            filtered += games.size() - expected.size();
+        }
+        assertTrue(total > 0 && filtered > 0);
+    }
+}